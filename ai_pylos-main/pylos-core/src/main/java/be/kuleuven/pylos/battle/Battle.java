@@ -3,6 +3,8 @@ package be.kuleuven.pylos.battle;
 import be.kuleuven.pylos.battle.data.PlayedGame;
 import be.kuleuven.pylos.game.*;
 import be.kuleuven.pylos.player.PylosPlayer;
+import be.kuleuven.pylos.player.PylosPlayerObserver;
+import be.kuleuven.pylos.player.PylosSearchInfo;
 import be.kuleuven.pylos.player.PylosPlayerType;
 
 import java.util.ArrayList;
@@ -15,106 +17,210 @@ public class Battle {
     }
 
     public static BattleResult play(PylosPlayerType ppt1, PylosPlayerType ppt2, int runs, boolean print) {
+        return play(ppt1, ppt2, runs, 0, 0, print);
+    }
+
+    /**
+     * plays a battle in which a player that goes over its time for a move or a game forfeits that game, see
+     * GameWatchdog
+     *
+     * @param ppt1
+     * @param ppt2
+     * @param runs
+     * @param moveMillis time per call of doMove/doRemove/doRemoveOrPass, 0 for no limit
+     * @param gameMillis thinking time per player per game, 0 for no limit
+     * @param print
+     * @return
+     */
+    public static BattleResult play(PylosPlayerType ppt1, PylosPlayerType ppt2, int runs, long moveMillis, long gameMillis, boolean print) {
         if (runs % 2 != 0) {
             throw new IllegalArgumentException("Please specify an even number of runs");
         }
+        if (print) System.out.println("Starting battle: " + ppt1 + " vs " + ppt2);
 
         Random random = new Random();
-        String p1Name = ppt1.toString();
-        String p2Name = ppt2.toString();
-        PylosPlayer p1 = ppt1.create();
-        PylosPlayer p2 = ppt2.create();
+        ArrayList<PlayedGame> playedGames = new ArrayList<>(runs);
+        BattleAggregator aggregator = new BattleAggregator(ppt1, ppt2, playedGames::add);
+        GameWatchdog watchdog = moveMillis > 0 || gameMillis > 0 ? new GameWatchdog(moveMillis, gameMillis) : null;
+        PylosPlayer p1 = PlayerPool.acquire(ppt1);
+        PylosPlayer p2 = PlayerPool.acquire(ppt2);
+        try {
+            // the first half of the games p1 starts, the second half p2
+            for (int i = 0; i < runs; i++) {
+                if (print) System.out.print("*");
+                aggregator.add(playGame(ppt1, ppt2, p1, p2, i < runs / 2, random, watchdog));
+                if (watchdog != null && watchdog.lastGameAbandoned()) {
+                    // still in use by the abandoned game
+                    p1 = PlayerPool.acquire(ppt1);
+                    p2 = PlayerPool.acquire(ppt2);
+                }
+            }
+        } finally {
+            PlayerPool.release(ppt1, p1);
+            PlayerPool.release(ppt2, p2);
+            if (watchdog != null) watchdog.close();
+        }
 
-        ArrayList<PlayedGame> playedGames = new ArrayList<>();
+        if (print) System.out.println();
 
-        long totalPlayTime = 0;
+        BattleResult battleResult = aggregator.snapshot();
+        battleResult.playedGames = playedGames;
 
-        int p1StartP1Win = 0;
-        int p1StartP2Win = 0;
-        int p1StartDraw = 0;
+        if (print) {
+            battleResult.print();
+        }
+
+        return battleResult;
+    }
 
-        if (print) System.out.println("Starting battle: " + p1Name + " vs " + p2Name);
+    /**
+     * plays one game between two players of a battle and returns it as a battle result of one game; a crashed game
+     * is a forfeit of the player that crashed (and has no PlayedGame)
+     *
+     * @param ppt1
+     * @param ppt2
+     * @param p1       the player of type ppt1
+     * @param p2       the player of type ppt2
+     * @param p1Starts true if p1 plays LIGHT (and starts)
+     * @param random
+     * @return
+     */
+    public static BattleResult playGame(PylosPlayerType ppt1, PylosPlayerType ppt2, PylosPlayer p1, PylosPlayer p2, boolean p1Starts, Random random) {
+        return playGame(ppt1, ppt2, p1, p2, p1Starts, random, null);
+    }
 
-        for (int i = 0; i < runs / 2; i++) {
-            if (print) System.out.print("*");
-            PylosBoard board = new PylosBoard();
-            PylosGame game = new PylosGame(board, p1, p2, random);
-            long startTime = System.currentTimeMillis();
-            try{
+    /**
+     * like playGame(..), with the time limits of 'watchdog': a player that goes over its time forfeits. If the
+     * watchdog abandoned the game (watchdog.lastGameAbandoned()), p1 and p2 must not be used again.
+     *
+     * @param ppt1
+     * @param ppt2
+     * @param p1
+     * @param p2
+     * @param p1Starts
+     * @param random
+     * @param watchdog null for no time limits
+     * @return
+     */
+    public static BattleResult playGame(PylosPlayerType ppt1, PylosPlayerType ppt2, PylosPlayer p1, PylosPlayer p2, boolean p1Starts, Random random, GameWatchdog watchdog) {
+        SearchStatistics p1SearchStatistics = new SearchStatistics();
+        SearchStatistics p2SearchStatistics = new SearchStatistics();
+        MoveTimeStatistics p1MoveTimes = new MoveTimeStatistics();
+        MoveTimeStatistics p2MoveTimes = new MoveTimeStatistics();
+        PylosPlayerObserver searchInfoCollector = new SearchInfoCollector(p1, p1SearchStatistics, p2SearchStatistics, p1MoveTimes, p2MoveTimes);
+
+        PylosPlayer light = p1Starts ? p1 : p2;
+        PylosPlayer dark = p1Starts ? p2 : p1;
+        PylosPlayerType lightType = p1Starts ? ppt1 : ppt2;
+        PylosPlayerType darkType = p1Starts ? ppt2 : ppt1;
+
+        ArrayList<PlayedGame> playedGames = new ArrayList<>(1);
+        // [p1 wins, draws, p2 wins]
+        int[] outcome = new int[3];
+
+        PylosBoard board = new PylosBoard();
+        PylosGame game = new PylosGame(board, light, dark, random, watchdog == null ? PylosGameObserver.NONE : watchdog.getObserver(), searchInfoCollector);
+        BattleMetrics metrics = BattleMetrics.get();
+        boolean crashed = false;
+        boolean timedOut = false;
+        boolean abandoned = false;
+        metrics.gameStarted();
+        long startTime = System.currentTimeMillis();
+        try {
+            if (watchdog == null) {
                 game.play();
-                if (game.getState() == PylosGameState.DRAW) {
-                    playedGames.add(new PlayedGame(game.getBoardHistory(), ppt1, ppt2, null));
-                    p1StartDraw++;
-                } else {
-                    if (game.getWinner() == p1) {
-                        playedGames.add(new PlayedGame(game.getBoardHistory(), ppt1, ppt2, PylosPlayerColor.LIGHT));
-                        p1StartP1Win++;
-                    } else {
-                        playedGames.add(new PlayedGame(game.getBoardHistory(), ppt1, ppt2, PylosPlayerColor.DARK));
-                        p1StartP2Win++;
-                    }
-                }
+            } else {
+                watchdog.play(game);
             }
-            catch(PylosGameCrashedException ge){
-                System.err.println("Game crashed during turn of " + ge.getCurrentPlayer().getClass().getName() + ", giving forfeit");
-                ge.getException().printStackTrace();
-                if (ge.getCurrentPlayer() == p1){
-                    p1StartP2Win++;
-                }
-                else{
-                    p1StartP1Win++;
-                }
+            if (game.getState() == PylosGameState.DRAW) {
+                playedGames.add(new PlayedGame(game.getBoardHistory(), lightType, darkType, null));
+                outcome[1]++;
+            } else {
+                playedGames.add(new PlayedGame(game.getBoardHistory(), lightType, darkType, game.getWinner() == light ? PylosPlayerColor.LIGHT : PylosPlayerColor.DARK));
+                outcome[game.getWinner() == p1 ? 0 : 2]++;
             }
-            long playTime = System.currentTimeMillis() - startTime;
-            totalPlayTime += playTime;
+        } catch (PylosGameTimeoutException te) {
+            System.err.println("Game timed out during turn of " + (te.getCurrentPlayer() == p1 ? ppt1 : ppt2) + " (" + te.getException().getMessage() + "), giving forfeit");
+            outcome[te.getCurrentPlayer() == p1 ? 2 : 0]++;
+            crashed = timedOut = true;
+            abandoned = te.isAbandoned();
+        } catch (PylosGameCrashedException ge) {
+            System.err.println("Game crashed during turn of " + ge.getCurrentPlayer().getClass().getName() + ", giving forfeit");
+            ge.getException().printStackTrace();
+            outcome[ge.getCurrentPlayer() == p1 ? 2 : 0]++;
+            crashed = true;
+        } finally {
+            // also when the game throws: a game left in flight would look like a stalled battle
+            metrics.gameEnded();
+        }
+        long playTime = System.currentTimeMillis() - startTime;
+        // the board history of an abandoned game is still being changed by its thread
+        int length = abandoned ? -1 : game.getBoardHistory().size();
+        metrics.gameFinished(ppt1.toString(), ppt2.toString(), outcome[0] - outcome[2], length, crashed, timedOut);
+
+        if (p1Starts) {
+            return new BattleResult(ppt1, ppt2, playTime, outcome[0], outcome[1], outcome[2], 0, 0, 0, playedGames, p1SearchStatistics, p2SearchStatistics, p1MoveTimes, p2MoveTimes);
+        } else {
+            return new BattleResult(ppt1, ppt2, playTime, 0, 0, 0, outcome[0], outcome[1], outcome[2], playedGames, p1SearchStatistics, p2SearchStatistics, p1MoveTimes, p2MoveTimes);
         }
+    }
 
-        int p2StartP1Win = 0;
-        int p2StartP2Win = 0;
-        int p2StartDraw = 0;
+    /**
+     * Player observer that only collects the search info and move times of both players
+     */
+    private static class SearchInfoCollector implements PylosPlayerObserver {
+        private final PylosPlayer p1;
+        private final SearchStatistics p1SearchStatistics;
+        private final SearchStatistics p2SearchStatistics;
+        private final MoveTimeStatistics p1MoveTimes;
+        private final MoveTimeStatistics p2MoveTimes;
+
+        SearchInfoCollector(PylosPlayer p1, SearchStatistics p1SearchStatistics, SearchStatistics p2SearchStatistics, MoveTimeStatistics p1MoveTimes, MoveTimeStatistics p2MoveTimes) {
+            this.p1 = p1;
+            this.p1SearchStatistics = p1SearchStatistics;
+            this.p2SearchStatistics = p2SearchStatistics;
+            this.p1MoveTimes = p1MoveTimes;
+            this.p2MoveTimes = p2MoveTimes;
+        }
 
-        for (int i = 0; i < runs / 2; i++) {
-            if (print) System.out.print("*");
-            PylosBoard board = new PylosBoard();
-            PylosGame game = new PylosGame(board, p2, p1, random);
-            long startTime = System.currentTimeMillis();
-            try {
-                game.play();
-                if (game.getState() == PylosGameState.DRAW) {
-                    playedGames.add(new PlayedGame(game.getBoardHistory(), ppt2, ppt1, null));
-                    p2StartDraw++;
-                } else {
-                    if (game.getWinner() == p1) {
-                        playedGames.add(new PlayedGame(game.getBoardHistory(), ppt2, ppt1, PylosPlayerColor.DARK));
-                        p2StartP1Win++;
-                    } else {
-                        playedGames.add(new PlayedGame(game.getBoardHistory(), ppt2, ppt1, PylosPlayerColor.LIGHT));
-                        p2StartP2Win++;
-                    }
-                }
-            }
-            catch (PylosGameCrashedException ge){
-                System.err.println("Game crashed during turn of " + ge.getCurrentPlayer().getClass().getName() + ", giving forfeit");
-                ge.getException().printStackTrace();
-                if (ge.getCurrentPlayer() == p2) {
-                    p2StartP1Win++;
-                } else {
-                    p2StartP2Win++;
-                }
-            }
-            long playTime = System.currentTimeMillis() - startTime;
-            totalPlayTime += playTime;
+        @Override
+        public void searchInfo(PylosPlayer player, PylosSearchInfo info) {
+            (player == p1 ? p1SearchStatistics : p2SearchStatistics).add(info);
         }
 
-        if (print) System.out.println();
+        @Override
+        public void moveTime(PylosPlayer player, long boardState, long cpuNanos) {
+            (player == p1 ? p1MoveTimes : p2MoveTimes).add(cpuNanos, boardState);
+        }
 
-        BattleResult battleResult = new BattleResult(ppt1, ppt2, totalPlayTime, p1StartP1Win, p1StartDraw, p1StartP2Win, p2StartP1Win, p2StartDraw, p2StartP2Win, playedGames);
+        @Override
+        public void shout(String str) {
 
-        if (print) {
-            battleResult.print();
         }
 
-        return battleResult;
+        @Override
+        public void shoutGood(String str) {
+
+        }
+
+        @Override
+        public void shoutBad(String str) {
+
+        }
+
+        @Override
+        public void checkingMoveSphere(PylosSphere pylosSphere, PylosLocation toLocation) {
+
+        }
+
+        @Override
+        public void checkingRemoveSphere(PylosSphere pylosSphere) {
+
+        }
+
+        @Override
+        public void checkingPass() {
+
+        }
     }
 }
-
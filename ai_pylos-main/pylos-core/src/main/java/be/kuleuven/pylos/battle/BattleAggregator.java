@@ -0,0 +1,105 @@
+package be.kuleuven.pylos.battle;
+
+import be.kuleuven.pylos.battle.data.PlayedGame;
+import be.kuleuven.pylos.battle.data.PlayedGameSink;
+import be.kuleuven.pylos.player.PylosPlayerType;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Adds up the games of a battle while it runs: the outcomes and run time in LongAdders, the search statistics and
+ * move times of both players, and every finished game is passed on to a PlayedGameSink instead of being kept.
+ * Memory stays the same however many games are played.
+ * <p>
+ * Thread-safe, the counters without locks: the workers of BattleMT add to one aggregator, and snapshot() can be called from any
+ * thread during the battle for the results so far.
+ */
+public class BattleAggregator {
+
+    private final PylosPlayerType p1;
+    private final PylosPlayerType p2;
+    private final PlayedGameSink sink;
+
+    private final LongAdder runTime = new LongAdder();
+    private final LongAdder p1StartP1Wins = new LongAdder();
+    private final LongAdder p1StartDraws = new LongAdder();
+    private final LongAdder p1StartP2Wins = new LongAdder();
+    private final LongAdder p2StartP1Wins = new LongAdder();
+    private final LongAdder p2StartDraws = new LongAdder();
+    private final LongAdder p2StartP2Wins = new LongAdder();
+
+    private final SearchStatistics p1SearchStatistics = new SearchStatistics();
+    private final SearchStatistics p2SearchStatistics = new SearchStatistics();
+    private final MoveTimeStatistics p1MoveTimes = new MoveTimeStatistics();
+    private final MoveTimeStatistics p2MoveTimes = new MoveTimeStatistics();
+
+    public BattleAggregator(PylosPlayerType p1, PylosPlayerType p2, PlayedGameSink sink) {
+        this.p1 = p1;
+        this.p2 = p2;
+        this.sink = sink;
+    }
+
+    public PylosPlayerType getP1() {
+        return p1;
+    }
+
+    public PylosPlayerType getP2() {
+        return p2;
+    }
+
+    /**
+     * adds the outcome of a result (usually one game, see Battle.playGame(..)) and passes its games to the sink
+     *
+     * @param result
+     */
+    public void add(BattleResult result) {
+        if (result.p1 != p1 || result.p2 != p2) {
+            throw new IllegalArgumentException("The result should be of the same players");
+        }
+        runTime.add(result.runTime);
+        p1StartP1Wins.add(result.p1StartP1Wins);
+        p1StartDraws.add(result.p1StartDraws);
+        p1StartP2Wins.add(result.p1StartP2Wins);
+        p2StartP1Wins.add(result.p2StartP1Wins);
+        p2StartDraws.add(result.p2StartDraws);
+        p2StartP2Wins.add(result.p2StartP2Wins);
+        p1SearchStatistics.add(result.p1SearchStatistics);
+        p2SearchStatistics.add(result.p2SearchStatistics);
+        p1MoveTimes.add(result.p1MoveTimes);
+        p2MoveTimes.add(result.p2MoveTimes);
+        for (PlayedGame game : result.playedGames) {
+            sink.accept(game);
+        }
+    }
+
+    /**
+     * returns the number of games added so far
+     *
+     * @return
+     */
+    public long getGames() {
+        return p1StartP1Wins.sum() + p1StartDraws.sum() + p1StartP2Wins.sum() + p2StartP1Wins.sum() + p2StartDraws.sum() + p2StartP2Wins.sum();
+    }
+
+    /**
+     * returns the results so far, without played games (those went to the sink). While games are being added the
+     * counts are not an atomic snapshot: a game can be in one counter and not yet in another.
+     *
+     * @return
+     */
+    public BattleResult snapshot() {
+        SearchStatistics p1Statistics = new SearchStatistics();
+        p1Statistics.add(p1SearchStatistics);
+        SearchStatistics p2Statistics = new SearchStatistics();
+        p2Statistics.add(p2SearchStatistics);
+        MoveTimeStatistics p1Times = new MoveTimeStatistics();
+        p1Times.add(p1MoveTimes);
+        MoveTimeStatistics p2Times = new MoveTimeStatistics();
+        p2Times.add(p2MoveTimes);
+        return new BattleResult(p1, p2, runTime.sum(),
+                p1StartP1Wins.intValue(), p1StartDraws.intValue(), p1StartP2Wins.intValue(),
+                p2StartP1Wins.intValue(), p2StartDraws.intValue(), p2StartP2Wins.intValue(),
+                new ArrayList<>(), p1Statistics, p2Statistics, p1Times, p2Times);
+    }
+}
@@ -1,82 +1,268 @@
 package be.kuleuven.pylos.battle;
 
+import be.kuleuven.pylos.battle.data.PlayedGame;
+import be.kuleuven.pylos.player.PylosPlayer;
 import be.kuleuven.pylos.player.PylosPlayerType;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Plays a battle on several threads. Every thread is a long-lived worker with its own pair of players, which
+ * claims chunks of game indices from a shared counter until all games are claimed: even indices p1 starts, odd
+ * indices p2 starts. The chunk size follows the game time the worker has seen (about CHUNK_NANOS of games per
+ * claim), and shrinks towards the end so no worker is left with a long queue while the others are idle.
+ * <p>
+ * Finished games are added to a BattleAggregator right away; pass one with a PlayedGameSink to stream the games
+ * somewhere instead of keeping them in the result.
+ * <p>
+ * Chunks are always an even number of games, so games 2k and 2k + 1 (same players, swapped colors) are played by one
+ * worker. With an Sprt every such pair is added to the test, and the workers stop claiming games once it accepts a
+ * hypothesis.
+ * <p>
+ * With time limits every worker plays its games through a GameWatchdog: a player that goes over its time forfeits
+ * the game, and one that hangs is left behind with its game thread instead of stalling the battle.
+ * <p>
+ * If a game throws, the other workers stop after their current game and play(..) rethrows.
+ */
 public class BattleMT {
 
-    static int N_RUNS_PER_JOB = 2; //has to be even
+    /* a worker claims about this much play time of games at once */
+    private static final long CHUNK_NANOS = 50_000_000L;
 
     public static BattleResult play(PylosPlayerType p1, PylosPlayerType p2, int runs, int nThreads) {
         return play(p1, p2, runs, nThreads, true);
     }
 
     public static BattleResult play(PylosPlayerType p1, PylosPlayerType p2, int runs, int nThreads, boolean print) {
-        int nTasks = runs / N_RUNS_PER_JOB;
-        int rest = runs % N_RUNS_PER_JOB;
+        Queue<PlayedGame> playedGames = new ConcurrentLinkedQueue<>();
+        BattleResult result = play(new BattleAggregator(p1, p2, playedGames::add), runs, nThreads, false);
+        result.playedGames = new ArrayList<>(playedGames);
 
-        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
-        List<BattleRunnable> battleRunnables = new ArrayList<>();
+        if (print) {
+            result.print();
+        }
+
+        return result;
+    }
+
+    /**
+     * plays a battle in which a player that goes over its time for a move or a game forfeits that game
+     *
+     * @param p1
+     * @param p2
+     * @param runs
+     * @param nThreads
+     * @param moveMillis time per call of doMove/doRemove/doRemoveOrPass, 0 for no limit
+     * @param gameMillis thinking time per player per game, 0 for no limit
+     * @return
+     */
+    public static BattleResult play(PylosPlayerType p1, PylosPlayerType p2, int runs, int nThreads, long moveMillis, long gameMillis) {
+        return play(p1, p2, runs, nThreads, moveMillis, gameMillis, true);
+    }
+
+    public static BattleResult play(PylosPlayerType p1, PylosPlayerType p2, int runs, int nThreads, long moveMillis, long gameMillis, boolean print) {
+        Queue<PlayedGame> playedGames = new ConcurrentLinkedQueue<>();
+        BattleResult result = play(new BattleAggregator(p1, p2, playedGames::add), null, runs, nThreads, moveMillis, gameMillis, false);
+        result.playedGames = new ArrayList<>(playedGames);
+
+        if (print) {
+            result.print();
+        }
+
+        return result;
+    }
+
+    /**
+     * plays a battle between the players of 'aggregator', which receives every game as it finishes (and passes it
+     * on to its sink). The returned result has no played games.
+     *
+     * @param aggregator can be read during the battle for partial results
+     * @param runs
+     * @param nThreads
+     * @param print
+     * @return
+     */
+    public static BattleResult play(BattleAggregator aggregator, int runs, int nThreads, boolean print) {
+        return play(aggregator, null, runs, nThreads, print);
+    }
 
-        for (int i = 0; i < nTasks; i++) {
-            BattleRunnable r = new BattleRunnable(p1, p2, N_RUNS_PER_JOB);
-            battleRunnables.add(r);
-            pool.execute(r);
+    /**
+     * plays a battle until 'sprt' accepts H0 or H1, or 'maxRuns' games are played
+     *
+     * @param p1
+     * @param p2
+     * @param sprt     holds the outcome of the test afterwards
+     * @param maxRuns
+     * @param nThreads
+     * @param print    also prints the test
+     * @return
+     */
+    public static BattleResult play(PylosPlayerType p1, PylosPlayerType p2, Sprt sprt, int maxRuns, int nThreads, boolean print) {
+        Queue<PlayedGame> playedGames = new ConcurrentLinkedQueue<>();
+        BattleResult result = play(new BattleAggregator(p1, p2, playedGames::add), sprt, maxRuns, nThreads, false);
+        result.playedGames = new ArrayList<>(playedGames);
+
+        if (print) {
+            result.print();
+            System.out.println(sprt);
         }
 
-        if (rest > 0) {
-            BattleRunnable r = new BattleRunnable(p1, p2, rest);
-            battleRunnables.add(r);
-            pool.execute(r);
+        return result;
+    }
+
+    /**
+     * like play(aggregator, runs, nThreads, print), but stops early when 'sprt' accepts a hypothesis. Games that
+     * were already running then still finish and are in the result, but not in the test.
+     *
+     * @param aggregator
+     * @param sprt       null to play all 'runs' games
+     * @param runs
+     * @param nThreads
+     * @param print
+     * @return
+     */
+    public static BattleResult play(BattleAggregator aggregator, Sprt sprt, int runs, int nThreads, boolean print) {
+        return play(aggregator, sprt, runs, nThreads, 0, 0, print);
+    }
+
+    /**
+     * the most general play: streams games to 'aggregator', stops early if 'sprt' decides and gives a forfeit to
+     * players that go over their time
+     *
+     * @param aggregator
+     * @param sprt       null to play all 'runs' games
+     * @param runs
+     * @param nThreads
+     * @param moveMillis time per call of doMove/doRemove/doRemoveOrPass, 0 for no limit
+     * @param gameMillis thinking time per player per game, 0 for no limit
+     * @param print
+     * @return
+     */
+    public static BattleResult play(BattleAggregator aggregator, Sprt sprt, int runs, int nThreads, long moveMillis, long gameMillis, boolean print) {
+        if (runs % 2 != 0) {
+            throw new IllegalArgumentException("Please specify an even number of runs");
+        }
+
+        AtomicInteger next = new AtomicInteger();
+        AtomicBoolean failed = new AtomicBoolean();
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        List<Future<?>> workers = new ArrayList<>();
+        for (int i = 0; i < nThreads; i++) {
+            workers.add(pool.submit(new Worker(aggregator, sprt, runs, nThreads, next, failed, moveMillis, gameMillis)));
         }
         pool.shutdown();
 
         try {
-            //wait until the pool has processed all games
-            long timeout = runs * 10L; //timeout of 10 seconds per game
-            pool.awaitTermination(timeout, TimeUnit.SECONDS);
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        } catch (ExecutionException e) {
+            failed.set(true);
+            pool.shutdownNow();
+            throw new RuntimeException("Not all battles were completed!", e.getCause());
         } catch (InterruptedException e) {
-            e.printStackTrace();
+            failed.set(true);
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for the battles", e);
         }
 
-        if (battleRunnables.stream().anyMatch(r -> r.result == null)) {
-            throw new RuntimeException("Not all battles were completed!");
-        }
-
-        BattleResult result = BattleResult.merge(battleRunnables.stream().map(r -> r.result).collect(Collectors.toList()));
+        BattleResult result = aggregator.snapshot();
 
         if (print) {
             result.print();
+            if (sprt != null) {
+                System.out.println(sprt);
+            }
         }
 
         return result;
     }
 
-    private static class BattleRunnable implements Runnable {
+    private static class Worker implements Runnable {
+        private final BattleAggregator aggregator;
+        private final Sprt sprt;
         private final PylosPlayerType p1;
         private final PylosPlayerType p2;
-        private final int nRuns;
-        private BattleResult result;
+        private final int runs;
+        private final int nThreads;
+        private final AtomicInteger next;
+        /* set when a worker or the waiting thread fails, all workers stop claiming and playing games */
+        private final AtomicBoolean failed;
+        private final long moveMillis;
+        private final long gameMillis;
 
-        public BattleRunnable(PylosPlayerType p1, PylosPlayerType p2, int nRuns) {
-            this.p1 = p1;
-            this.p2 = p2;
-            this.nRuns = nRuns;
+        private long games;
+        private long gameNanos;
+
+        Worker(BattleAggregator aggregator, Sprt sprt, int runs, int nThreads, AtomicInteger next, AtomicBoolean failed, long moveMillis, long gameMillis) {
+            this.aggregator = aggregator;
+            this.sprt = sprt;
+            this.p1 = aggregator.getP1();
+            this.p2 = aggregator.getP2();
+            this.runs = runs;
+            this.nThreads = nThreads;
+            this.next = next;
+            this.failed = failed;
+            this.moveMillis = moveMillis;
+            this.gameMillis = gameMillis;
         }
 
         @Override
         public void run() {
+            Random random = new Random();
+            GameWatchdog watchdog = moveMillis > 0 || gameMillis > 0 ? new GameWatchdog(moveMillis, gameMillis) : null;
+            PylosPlayer player1 = PlayerPool.acquire(p1);
+            PylosPlayer player2 = PlayerPool.acquire(p2);
             try {
-                result = Battle.play(p1, p2, nRuns, false);
-            } catch (Exception e) {
-                e.printStackTrace();
+                double pairScore = 0;
+                while (!failed.get() && (sprt == null || !sprt.isDecided())) {
+                    int chunk = chunkSize();
+                    int from = next.getAndAdd(chunk);
+                    if (from >= runs) break;
+                    int to = Math.min(from + chunk, runs);
+                    for (int game = from; game < to && !failed.get(); game++) {
+                        long start = System.nanoTime();
+                        BattleResult result = Battle.playGame(p1, p2, player1, player2, game % 2 == 0, random, watchdog);
+                        if (watchdog != null && watchdog.lastGameAbandoned()) {
+                            // still in use by the abandoned game
+                            player1 = PlayerPool.acquire(p1);
+                            player2 = PlayerPool.acquire(p2);
+                        }
+                        aggregator.add(result);
+                        gameNanos += System.nanoTime() - start;
+                        games++;
+
+                        if (sprt != null) {
+                            pairScore += result.p1Wins() + 0.5 * (result.p1StartDraws + result.p2StartDraws);
+                            if (game % 2 == 1) {
+                                if (sprt.add(pairScore) != Sprt.State.CONTINUE) break;
+                                pairScore = 0;
+                            }
+                        }
+                    }
+                }
+            } catch (RuntimeException | Error e) {
+                failed.set(true);
+                throw e;
+            } finally {
+                PlayerPool.release(p1, player1);
+                PlayerPool.release(p2, player2);
+                if (watchdog != null) watchdog.close();
             }
         }
+
+        /* about CHUNK_NANOS of games, but at most half a fair share of the games that are left, rounded up to pairs */
+        private int chunkSize() {
+            int timed = games == 0 ? 1 : (int) Math.min(runs, CHUNK_NANOS * games / Math.max(1, gameNanos));
+            int fair = (runs - next.get()) / (2 * nThreads);
+            return (Math.max(1, Math.min(timed, fair)) + 1) & ~1;
+        }
     }
 }
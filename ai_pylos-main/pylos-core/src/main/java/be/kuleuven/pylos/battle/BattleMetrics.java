@@ -0,0 +1,237 @@
+package be.kuleuven.pylos.battle;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts every game played through Battle.playGame(..) (so by Battle, BattleMT, TournamentScheduler and, in their
+ * own JVMs, the BattleWorkers of a BattleCoordinator) for watching a long run from JConsole or any JMX client:
+ * games completed and per second, games in flight, per-player outcomes, game length, crashes and timeouts, plus GC
+ * and heap numbers of the JVM.
+ * <p>
+ * The workers update it without locks: LongAdders, and the per-second rate is an exponentially weighted moving
+ * average that one thread at a time advances every TICK_NANOS (claimed with a CAS), as games finish or the rate
+ * is read. The instance registers itself with the platform MBean server on first use, as OBJECT_NAME.
+ */
+public class BattleMetrics implements BattleMetricsMXBean {
+
+    public static final String OBJECT_NAME = "be.kuleuven.pylos:type=BattleMetrics";
+
+    private static final long TICK_NANOS = 5_000_000_000L;
+    /* weight of a tick in the 1-minute average */
+    private static final double ALPHA = 1 - Math.exp(-5.0 / 60);
+
+    private static final BattleMetrics INSTANCE = register(new BattleMetrics());
+
+    private final LongAdder games = new LongAdder();
+    private final LongAdder inFlight = new LongAdder();
+    private final LongAdder steps = new LongAdder();
+    private final LongAdder measured = new LongAdder();
+    private final LongAdder crashes = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    /* [wins, draws, losses] per player type */
+    private final ConcurrentHashMap<String, LongAdder[]> outcomes = new ConcurrentHashMap<>();
+
+    /* games finished since the last tick, the rate, and the time of the last tick and game */
+    private final LongAdder uncounted = new LongAdder();
+    private volatile double rate;
+    private volatile boolean rateInitialized;
+    private final AtomicLong lastTick = new AtomicLong(System.nanoTime());
+    private volatile long lastGame;
+
+    BattleMetrics() {
+    }
+
+    /**
+     * returns the metrics of this JVM
+     *
+     * @return
+     */
+    public static BattleMetrics get() {
+        return INSTANCE;
+    }
+
+    private static BattleMetrics register(BattleMetrics metrics) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, new ObjectName(OBJECT_NAME));
+        } catch (JMException | SecurityException e) {
+            System.err.println("Could not register " + OBJECT_NAME + ": " + e);
+        }
+        return metrics;
+    }
+
+    void gameStarted() {
+        inFlight.increment();
+    }
+
+    /* the game of gameStarted() is over, whether it finished or threw */
+    void gameEnded() {
+        inFlight.decrement();
+    }
+
+    /**
+     * counts a finished game (after gameEnded())
+     *
+     * @param p1       type name of p1
+     * @param p2       type name of p2
+     * @param outcome  1 p1 wins, 0 draw, -1 p2 wins
+     * @param length   number of board states of the game, -1 if unknown (left out of the mean game length)
+     * @param crashed  true if the game ended in a crash (a timeout is also a crash)
+     * @param timedOut true if the game ended because a player went over its time
+     */
+    void gameFinished(String p1, String p2, int outcome, int length, boolean crashed, boolean timedOut) {
+        games.increment();
+        uncounted.increment();
+        if (length >= 0) {
+            steps.add(length);
+            measured.increment();
+        }
+        if (crashed) crashes.increment();
+        if (timedOut) timeouts.increment();
+        outcomesOf(p1)[1 - outcome].increment();
+        outcomesOf(p2)[1 + outcome].increment();
+        lastGame = System.nanoTime();
+        tickIfNecessary();
+    }
+
+    private LongAdder[] outcomesOf(String player) {
+        LongAdder[] counts = outcomes.get(player);
+        if (counts != null) return counts;
+        return outcomes.computeIfAbsent(player, p -> new LongAdder[]{new LongAdder(), new LongAdder(), new LongAdder()});
+    }
+
+    private void tickIfNecessary() {
+        long last = lastTick.get();
+        long now = System.nanoTime();
+        long ticks = (now - last) / TICK_NANOS;
+        if (ticks <= 0 || !lastTick.compareAndSet(last, last + ticks * TICK_NANOS)) return;
+        // only the thread that moved lastTick gets here
+        double current = uncounted.sumThenReset() / (TICK_NANOS / 1e9);
+        double r = rateInitialized ? rate + ALPHA * (current - rate) : current;
+        rateInitialized = true;
+        for (long i = 1; i < ticks; i++) {
+            r -= ALPHA * r;
+        }
+        rate = r;
+    }
+
+    @Override
+    public long getGamesCompleted() {
+        return games.sum();
+    }
+
+    @Override
+    public double getGamesPerSecond() {
+        tickIfNecessary();
+        return rate;
+    }
+
+    @Override
+    public long getGamesInFlight() {
+        return inFlight.sum();
+    }
+
+    @Override
+    public double getSecondsSinceLastGame() {
+        return games.sum() == 0 ? -1 : (System.nanoTime() - lastGame) / 1e9;
+    }
+
+    @Override
+    public double getMeanGameLength() {
+        long n = measured.sum();
+        return n == 0 ? 0 : (double) steps.sum() / n;
+    }
+
+    @Override
+    public long getCrashes() {
+        return crashes.sum();
+    }
+
+    @Override
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    @Override
+    public Map<String, Long> getWins() {
+        return outcomeMap(0);
+    }
+
+    @Override
+    public Map<String, Long> getDraws() {
+        return outcomeMap(1);
+    }
+
+    @Override
+    public Map<String, Long> getLosses() {
+        return outcomeMap(2);
+    }
+
+    private Map<String, Long> outcomeMap(int outcome) {
+        Map<String, Long> map = new TreeMap<>();
+        outcomes.forEach((player, counts) -> map.put(player, counts[outcome].sum()));
+        return map;
+    }
+
+    @Override
+    public long getGcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    @Override
+    public long getGcTimeMillis() {
+        long time = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(0, gc.getCollectionTime());
+        }
+        return time;
+    }
+
+    @Override
+    public long getHeapUsedBytes() {
+        return heap().getUsed();
+    }
+
+    @Override
+    public long getHeapMaxBytes() {
+        return heap().getMax();
+    }
+
+    private static MemoryUsage heap() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+    }
+
+    /**
+     * sets all counters to 0 (except the games in flight); not atomic, games that finish meanwhile may be half counted
+     */
+    @Override
+    public void reset() {
+        games.reset();
+        steps.reset();
+        measured.reset();
+        crashes.reset();
+        timeouts.reset();
+        outcomes.clear();
+        uncounted.reset();
+        rate = 0;
+        rateInitialized = false;
+    }
+
+    public String toString() {
+        return String.format("%d games, %.1f games/sec, %d in flight, %.1f states/game, %d crashes (%d timeouts), GC %d ms, heap %d MB",
+                getGamesCompleted(), getGamesPerSecond(), getGamesInFlight(), getMeanGameLength(), getCrashes(), getTimeouts(),
+                getGcTimeMillis(), getHeapUsedBytes() >> 20);
+    }
+}
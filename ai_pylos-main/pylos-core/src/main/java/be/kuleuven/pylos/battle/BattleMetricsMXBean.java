@@ -0,0 +1,43 @@
+package be.kuleuven.pylos.battle;
+
+import java.util.Map;
+
+/**
+ * Live throughput of the games played in this JVM, registered as be.kuleuven.pylos:type=BattleMetrics (see
+ * BattleMetrics). The maps are keyed by player type name.
+ */
+public interface BattleMetricsMXBean {
+
+    long getGamesCompleted();
+
+    /** games finished per second, exponentially weighted over the last minute */
+    double getGamesPerSecond();
+
+    long getGamesInFlight();
+
+    /** seconds since the last game finished, -1 before the first one; a stall shows up as a growing number */
+    double getSecondsSinceLastGame();
+
+    /** mean number of board states (steps: moves, removals and passes) per game */
+    double getMeanGameLength();
+
+    long getCrashes();
+
+    long getTimeouts();
+
+    Map<String, Long> getWins();
+
+    Map<String, Long> getDraws();
+
+    Map<String, Long> getLosses();
+
+    long getGcCount();
+
+    long getGcTimeMillis();
+
+    long getHeapUsedBytes();
+
+    long getHeapMaxBytes();
+
+    void reset();
+}
@@ -20,7 +20,22 @@ public class BattleResult {
 
     public ArrayList<PlayedGame> playedGames;
 
+    public SearchStatistics p1SearchStatistics;
+    public SearchStatistics p2SearchStatistics;
+
+    /** CPU time per call of each player */
+    public MoveTimeStatistics p1MoveTimes;
+    public MoveTimeStatistics p2MoveTimes;
+
     public BattleResult(PylosPlayerType p1, PylosPlayerType p2, long runTime, int p1StartP1Wins, int p1StartDraws, int p1StartP2Wins, int p2StartP1Wins, int p2StartDraws, int p2StartP2Wins, ArrayList<PlayedGame> playedGames) {
+        this(p1, p2, runTime, p1StartP1Wins, p1StartDraws, p1StartP2Wins, p2StartP1Wins, p2StartDraws, p2StartP2Wins, playedGames, new SearchStatistics(), new SearchStatistics());
+    }
+
+    public BattleResult(PylosPlayerType p1, PylosPlayerType p2, long runTime, int p1StartP1Wins, int p1StartDraws, int p1StartP2Wins, int p2StartP1Wins, int p2StartDraws, int p2StartP2Wins, ArrayList<PlayedGame> playedGames, SearchStatistics p1SearchStatistics, SearchStatistics p2SearchStatistics) {
+        this(p1, p2, runTime, p1StartP1Wins, p1StartDraws, p1StartP2Wins, p2StartP1Wins, p2StartDraws, p2StartP2Wins, playedGames, p1SearchStatistics, p2SearchStatistics, new MoveTimeStatistics(), new MoveTimeStatistics());
+    }
+
+    public BattleResult(PylosPlayerType p1, PylosPlayerType p2, long runTime, int p1StartP1Wins, int p1StartDraws, int p1StartP2Wins, int p2StartP1Wins, int p2StartDraws, int p2StartP2Wins, ArrayList<PlayedGame> playedGames, SearchStatistics p1SearchStatistics, SearchStatistics p2SearchStatistics, MoveTimeStatistics p1MoveTimes, MoveTimeStatistics p2MoveTimes) {
         this.p1 = p1;
         this.p2 = p2;
         this.runTime = runTime;
@@ -31,6 +46,10 @@ public class BattleResult {
         this.p2StartDraws = p2StartDraws;
         this.p2StartP2Wins = p2StartP2Wins;
         this.playedGames = playedGames;
+        this.p1SearchStatistics = p1SearchStatistics;
+        this.p2SearchStatistics = p2SearchStatistics;
+        this.p1MoveTimes = p1MoveTimes;
+        this.p2MoveTimes = p2MoveTimes;
     }
 
     public static BattleResult merge(Collection<BattleResult> brs) {
@@ -52,7 +71,42 @@ public class BattleResult {
 
         ArrayList<PlayedGame> playedGames = brs.stream().flatMap(br -> br.playedGames.stream()).collect(Collectors.toCollection(ArrayList::new));
 
-        return new BattleResult(p1, p2, runTime, p1StartP1Wins, p1StartDraws, p1StartP2Wins, p2StartP1Wins, p2StartDraws, p2StartP2Wins, playedGames);
+        SearchStatistics p1SearchStatistics = SearchStatistics.merge(brs.stream().map(br -> br.p1SearchStatistics).collect(Collectors.toList()));
+        SearchStatistics p2SearchStatistics = SearchStatistics.merge(brs.stream().map(br -> br.p2SearchStatistics).collect(Collectors.toList()));
+
+        MoveTimeStatistics p1MoveTimes = new MoveTimeStatistics();
+        MoveTimeStatistics p2MoveTimes = new MoveTimeStatistics();
+        for (BattleResult br : brs) {
+            p1MoveTimes.add(br.p1MoveTimes);
+            p2MoveTimes.add(br.p2MoveTimes);
+        }
+
+        return new BattleResult(p1, p2, runTime, p1StartP1Wins, p1StartDraws, p1StartP2Wins, p2StartP1Wins, p2StartDraws, p2StartP2Wins, playedGames, p1SearchStatistics, p2SearchStatistics, p1MoveTimes, p2MoveTimes);
+    }
+
+    /**
+     * returns a result of one game of which only the outcome is known (e.g. read back from a journal or a worker)
+     *
+     * @param p1
+     * @param p2
+     * @param p1Starts
+     * @param outcome  1 p1 wins, 0 draw, -1 p2 wins
+     * @param runTime
+     * @return
+     */
+    public static BattleResult ofOutcome(PylosPlayerType p1, PylosPlayerType p2, boolean p1Starts, int outcome, long runTime) {
+        int[] counts = new int[6];
+        counts[(p1Starts ? 0 : 3) + 1 - Integer.signum(outcome)] = 1;
+        return new BattleResult(p1, p2, runTime, counts[0], counts[1], counts[2], counts[3], counts[4], counts[5], new ArrayList<>());
+    }
+
+    /**
+     * returns the outcome of a result of one game: 1 p1 wins, 0 draw, -1 p2 wins
+     *
+     * @return
+     */
+    public int outcome() {
+        return Integer.signum(p1Wins() - p2Wins());
     }
 
     public int p1Wins() {
@@ -85,7 +139,11 @@ public class BattleResult {
         System.out.println(String.format(" * %6s", String.format("%.2f", (double) (p1StartP2Wins + p2StartP2Wins) / nGames * 100)) + "% " + p2);
         System.out.println(String.format(" * %6s", String.format("%.2f", (double) (p1StartDraws + p2StartDraws) / nGames * 100)) + "% Draw");
         System.out.println();
-        System.out.println("CPU Time: " + String.format("%.2f", (double) runTime / 1000) + " sec (" + String.format("%.2f", (double) runTime / 1000 / nGames) + " sec / game)");
+        System.out.println("Play time (wall, summed over games): " + String.format("%.2f", (double) runTime / 1000) + " sec (" + String.format("%.2f", (double) runTime / 1000 / nGames) + " sec / game)");
+        if (p1MoveTimes.getCalls() > 0) System.out.println("CPU time " + p1 + ": " + String.format("%.2f", p1MoveTimes.getTotalNanos() / 1e9) + " sec, per call " + p1MoveTimes);
+        if (p2MoveTimes.getCalls() > 0) System.out.println("CPU time " + p2 + ": " + String.format("%.2f", p2MoveTimes.getTotalNanos() / 1e9) + " sec, per call " + p2MoveTimes);
+        if (p1SearchStatistics.getMoves() > 0) System.out.println("Search " + p1 + ": " + p1SearchStatistics);
+        if (p2SearchStatistics.getMoves() > 0) System.out.println("Search " + p2 + ": " + p2SearchStatistics);
         System.out.println("----------------------------");
     }
 }
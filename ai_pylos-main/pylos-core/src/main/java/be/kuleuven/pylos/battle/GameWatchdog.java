@@ -0,0 +1,204 @@
+package be.kuleuven.pylos.battle;
+
+import be.kuleuven.pylos.game.*;
+import be.kuleuven.pylos.player.PylosPlayer;
+
+import java.io.Closeable;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Enforces a time limit per move and per game, so one hanging or pathologically slow player can't stall a battle.
+ * <p>
+ * Games run on a game thread of the watchdog while the calling thread watches the clock. The move limit is first
+ * set on the game's cancellation token (PylosGame.setMoveTimeLimit), so players that poll it play their best move
+ * in time. The game limit is a clock per player: the time of its own calls in the game adds up, so a player is not
+ * blamed for the time its opponent used. A player that is still thinking GRACE_NANOS after its move or game time ran
+ * out is asked to stop
+ * (PylosGame.abort()), and gets GRACE_NANOS more to return; either way the game ends with a
+ * PylosGameTimeoutException, a forfeit of that player. If it doesn't return at all, the game thread is abandoned
+ * (interrupted and left behind) and the next game gets a new one. The players of an abandoned game may still be
+ * running: lastGameAbandoned() tells the caller not to reuse them.
+ * <p>
+ * One watchdog per thread that plays games; close() stops its game thread.
+ */
+public class GameWatchdog implements Closeable {
+
+    private static final long GRACE_NANOS = 1_000_000_000L;
+    /* the clock is checked at least this often, to see new calls start */
+    private static final long POLL_NANOS = 100_000_000L;
+    private static final AtomicInteger THREADS = new AtomicInteger();
+
+    private final long moveMillis;
+    private final long moveNanos;
+    private final long gameNanos;
+    private ExecutorService gameThread = newGameThread();
+    private boolean lastGameAbandoned;
+
+    /* the player called last and since when, set by the observer on the game thread */
+    private volatile PylosPlayer caller;
+    private volatile long callStart;
+    private volatile boolean inCall;
+    /* thinking time of LIGHT and DARK in finished calls of this game; changed together with the above, on 'this' */
+    private final long[] used = new long[2];
+
+    private final PylosGameObserver observer = new PylosGameObserver() {
+        @Override
+        public void aboutToCall(PylosGameState currentState, PylosPlayer player) {
+            synchronized (GameWatchdog.this) {
+                caller = player;
+                callStart = System.nanoTime();
+                inCall = true;
+            }
+        }
+
+        @Override
+        public void callPerformed() {
+            synchronized (GameWatchdog.this) {
+                if (inCall) used[caller.PLAYER_COLOR.ordinal()] += System.nanoTime() - callStart;
+                inCall = false;
+            }
+        }
+
+        @Override
+        public void move(PylosSphere pylosSphere, PylosLocation prevLocation) {
+        }
+
+        @Override
+        public void completed(PylosPlayer winningPlayer) {
+        }
+
+        @Override
+        public void aborted() {
+        }
+
+        @Override
+        public void draw() {
+        }
+
+        @Override
+        public void println(String str) {
+        }
+    };
+
+    /**
+     * @param moveMillis time per call of doMove/doRemove/doRemoveOrPass, 0 for no limit
+     * @param gameMillis thinking time per player per game, 0 for no limit
+     */
+    public GameWatchdog(long moveMillis, long gameMillis) {
+        if (moveMillis < 0 || gameMillis < 0) {
+            throw new IllegalArgumentException("Time limits should be >= 0, got " + moveMillis + " and " + gameMillis);
+        }
+        this.moveMillis = moveMillis;
+        this.moveNanos = moveMillis * 1_000_000L;
+        this.gameNanos = gameMillis * 1_000_000L;
+    }
+
+    /**
+     * returns the observer to create the games with that are played by play(..)
+     *
+     * @return
+     */
+    public PylosGameObserver getObserver() {
+        return observer;
+    }
+
+    /**
+     * plays 'game' (created with getObserver()) within the time limits
+     *
+     * @param game
+     * @throws PylosGameTimeoutException if a player went over its time
+     * @throws PylosGameCrashedException if a player crashed
+     */
+    public void play(PylosGame game) {
+        lastGameAbandoned = false;
+        synchronized (this) {
+            caller = null;
+            inCall = false;
+            used[0] = used[1] = 0;
+        }
+        if (moveMillis > 0) game.setMoveTimeLimit(moveMillis);
+
+        Future<?> future = gameThread.submit(game::play);
+        while (true) {
+            PylosPlayer player = caller;
+            long start = callStart;
+            boolean thinking = inCall;
+            long now = System.nanoTime();
+            long gameLeft = gameNanos > 0 && thinking && player != null ? gameNanos + GRACE_NANOS - used(player, now) : Long.MAX_VALUE;
+            long moveLeft = moveNanos > 0 && thinking ? start + moveNanos + GRACE_NANOS - now : Long.MAX_VALUE;
+            try {
+                future.get(Math.max(0, Math.min(POLL_NANOS, Math.min(gameLeft, moveLeft))), TimeUnit.NANOSECONDS);
+                return;
+            } catch (TimeoutException e) {
+                if (player == null) continue;
+                now = System.nanoTime();
+                // the player whose own clock ran out, which need not be the one thinking now
+                if (gameNanos > 0) {
+                    if (used(player, now) - (gameNanos + GRACE_NANOS) >= 0) timeOut(game, future, player, "game");
+                    if (used(player.OTHER, now) - (gameNanos + GRACE_NANOS) >= 0) timeOut(game, future, player.OTHER, "game");
+                }
+                // only if the same call is still running
+                if (moveNanos > 0 && thinking && inCall && caller == player && callStart == start
+                        && now - (start + moveNanos + GRACE_NANOS) >= 0) {
+                    timeOut(game, future, player, "move");
+                }
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+                if (cause instanceof Error) throw (Error) cause;
+                throw new IllegalStateException(cause);
+            } catch (InterruptedException e) {
+                game.abort();
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while playing a game", e);
+            }
+        }
+    }
+
+    /* thinking time of 'player' in this game, the running call included */
+    private synchronized long used(PylosPlayer player, long now) {
+        return used[player.PLAYER_COLOR.ordinal()] + (inCall && caller == player ? now - callStart : 0);
+    }
+
+    private void timeOut(PylosGame game, Future<?> future, PylosPlayer player, String limit) {
+        game.abort();
+        try {
+            future.get(GRACE_NANOS, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            gameThread.shutdownNow();
+            gameThread = newGameThread();
+            lastGameAbandoned = true;
+        } catch (ExecutionException e) {
+            // it crashed while stopping, still the time overrun that counts
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        throw new PylosGameTimeoutException(player, player.OTHER, player + " went over its " + limit + " time"
+                + (lastGameAbandoned ? " and did not stop, its thread was abandoned" : ""), lastGameAbandoned);
+    }
+
+    /**
+     * returns true if the thread of the last game was abandoned: its players may still be running, so they should
+     * not be used again
+     *
+     * @return
+     */
+    public boolean lastGameAbandoned() {
+        return lastGameAbandoned;
+    }
+
+    @Override
+    public void close() {
+        gameThread.shutdownNow();
+    }
+
+    private static ExecutorService newGameThread() {
+        return Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "PylosGame-" + THREADS.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
@@ -0,0 +1,140 @@
+package be.kuleuven.pylos.battle;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Distribution of the CPU time one player used per call (doMove, doRemove, doRemoveOrPass) over a battle: mean,
+ * percentiles and the slowest call with the board state it was made on.
+ * <p>
+ * Times are counted in a histogram with 8 buckets per power of two, so percentiles are within about 6%. Thread-safe:
+ * the workers of a battle can add to one instance and it can be read while they do.
+ */
+public class MoveTimeStatistics {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int N_BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(N_BUCKETS);
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder nanos = new LongAdder();
+
+    // the slowest call, guarded by 'this'; maxNanos is also read without the lock to skip it for faster calls
+    private volatile long maxNanos = -1;
+    private long maxBoardState;
+
+    /**
+     * adds one call
+     *
+     * @param cpuNanos   CPU time of the call
+     * @param boardState the board state (PylosBoard.toLong()) the call was made on
+     */
+    public void add(long cpuNanos, long boardState) {
+        long time = Math.max(0, cpuNanos);
+        buckets.incrementAndGet(bucketOf(time));
+        calls.increment();
+        nanos.add(time);
+        if (time > maxNanos) {
+            synchronized (this) {
+                if (time > maxNanos) {
+                    maxNanos = time;
+                    maxBoardState = boardState;
+                }
+            }
+        }
+    }
+
+    /**
+     * adds all calls of 's'
+     *
+     * @param s
+     */
+    public void add(MoveTimeStatistics s) {
+        for (int i = 0; i < N_BUCKETS; i++) {
+            long count = s.buckets.get(i);
+            if (count != 0) buckets.addAndGet(i, count);
+        }
+        calls.add(s.calls.sum());
+        nanos.add(s.nanos.sum());
+        long otherMax;
+        long otherState;
+        synchronized (s) {
+            otherMax = s.maxNanos;
+            otherState = s.maxBoardState;
+        }
+        synchronized (this) {
+            if (otherMax > maxNanos) {
+                maxNanos = otherMax;
+                maxBoardState = otherState;
+            }
+        }
+    }
+
+    public long getCalls() {
+        return calls.sum();
+    }
+
+    public long getTotalNanos() {
+        return nanos.sum();
+    }
+
+    public double getMeanNanos() {
+        long n = calls.sum();
+        return n == 0 ? 0 : (double) nanos.sum() / n;
+    }
+
+    /**
+     * returns the time below which a fraction 'p' of the calls stayed (middle of its histogram bucket)
+     *
+     * @param p between 0 and 1
+     * @return
+     */
+    public long getPercentileNanos(double p) {
+        long[] counts = new long[N_BUCKETS];
+        long total = 0;
+        for (int i = 0; i < N_BUCKETS; i++) total += counts[i] = buckets.get(i);
+        if (total == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(p * total));
+        long seen = 0;
+        for (int i = 0; i < N_BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) return Math.min(middleOf(i), getMaxNanos());
+        }
+        return getMaxNanos();
+    }
+
+    public long getMaxNanos() {
+        return Math.max(0, maxNanos);
+    }
+
+    /**
+     * returns the board state of the slowest call
+     *
+     * @return
+     */
+    public synchronized long getMaxBoardState() {
+        return maxBoardState;
+    }
+
+    /* values below SUB_BUCKETS have a bucket each, above that every power of two is split in SUB_BUCKETS */
+    private static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    private static long middleOf(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        long lower = (1L << exponent) + (bucket % SUB_BUCKETS) * width;
+        return lower + width / 2;
+    }
+
+    public String toString() {
+        return String.format("%d calls, mean %.2f ms, p50 %.2f ms, p99 %.2f ms, max %.2f ms (board state %x)",
+                getCalls(), getMeanNanos() / 1e6, getPercentileNanos(0.5) / 1e6, getPercentileNanos(0.99) / 1e6, getMaxNanos() / 1e6, getMaxBoardState());
+    }
+}
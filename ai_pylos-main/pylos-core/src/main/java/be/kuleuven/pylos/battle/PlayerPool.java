@@ -0,0 +1,59 @@
+package be.kuleuven.pylos.battle;
+
+import be.kuleuven.pylos.player.PylosPlayer;
+import be.kuleuven.pylos.player.PylosPlayerType;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Idle players of the calling thread, per player type. Battles (and BattleMT workers) take their players from here
+ * and give them back when done, so the next battle on the same thread reuses the warm instances (transposition
+ * tables, buffers) instead of creating new ones.
+ * <p>
+ * Every thread has its own pool, so a player is only ever used by one thread. Players are reset with
+ * PylosPlayer.resetForReuse() when they are released.
+ */
+public final class PlayerPool {
+
+    /* idle players kept per type and thread: 2, for a type that plays against itself */
+    private static final int MAX_IDLE_PER_TYPE = 2;
+
+    private static final ThreadLocal<Map<PylosPlayerType, ArrayDeque<PylosPlayer>>> IDLE = ThreadLocal.withInitial(HashMap::new);
+
+    private PlayerPool() {
+    }
+
+    /**
+     * returns an idle player of 'type' of this thread, or a new one if there is none
+     *
+     * @param type
+     * @return
+     */
+    public static PylosPlayer acquire(PylosPlayerType type) {
+        ArrayDeque<PylosPlayer> idle = IDLE.get().get(type);
+        PylosPlayer player = idle == null ? null : idle.pollFirst();
+        return player != null ? player : type.create();
+    }
+
+    /**
+     * resets 'player' and keeps it for the next acquire(type) on this thread
+     *
+     * @param type   the type the player was acquired as
+     * @param player
+     */
+    public static void release(PylosPlayerType type, PylosPlayer player) {
+        if (player == null) return;
+        player.resetForReuse();
+        ArrayDeque<PylosPlayer> idle = IDLE.get().computeIfAbsent(type, t -> new ArrayDeque<>());
+        if (idle.size() < MAX_IDLE_PER_TYPE) idle.addFirst(player);
+    }
+
+    /**
+     * drops the idle players of this thread
+     */
+    public static void clear() {
+        IDLE.remove();
+    }
+}
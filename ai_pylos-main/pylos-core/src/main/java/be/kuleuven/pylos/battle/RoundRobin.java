@@ -3,6 +3,8 @@ package be.kuleuven.pylos.battle;
 import be.kuleuven.pylos.player.PylosPlayerFactory;
 import be.kuleuven.pylos.player.PylosPlayerType;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.*;
 
 public class RoundRobin {
@@ -10,13 +12,25 @@ public class RoundRobin {
     public static void play(Collection<Match> matches, int nRuns, int nThreads) {
         System.out.println("Starting round robin tournament: " + matches.size() + " games of " + nRuns + " runs across " + nThreads + " threads");
         long start = System.currentTimeMillis();
-        int i = 1;
-        for (Match match : matches) {
-            System.out.println("\t" + i + ": " + match.ppt1.toString() + " vs. " + match.ppt2.toString());
-            BattleResult result = BattleMT.play(match.ppt1, match.ppt2, nRuns, nThreads, false);
-            match.battleResult = result;
-            i++;
-        }
+        // all games of all matches share one queue and one pool, see TournamentScheduler
+        new TournamentScheduler(matches, nRuns, true).play(nThreads);
+        long end = System.currentTimeMillis();
+        System.out.println("Tournament finished in " + (end - start) + " ms");
+    }
+
+    /**
+     * plays the tournament with a journal: if it is stopped, play it again with the same journal to resume it
+     *
+     * @param matches
+     * @param nRuns
+     * @param nThreads
+     * @param journal  see TournamentJournal
+     * @throws IOException
+     */
+    public static void play(Collection<Match> matches, int nRuns, int nThreads, Path journal) throws IOException {
+        System.out.println("Starting round robin tournament: " + matches.size() + " games of " + nRuns + " runs across " + nThreads + " threads, journal " + journal);
+        long start = System.currentTimeMillis();
+        new TournamentScheduler(matches, nRuns, true).play(nThreads, journal);
         long end = System.currentTimeMillis();
         System.out.println("Tournament finished in " + (end - start) + " ms");
     }
@@ -84,11 +98,22 @@ public class RoundRobin {
     public static class Match {
         public PylosPlayerType ppt1;
         public PylosPlayerType ppt2;
-        public BattleResult battleResult;
+        /** set when all games of the match are played */
+        public volatile BattleResult battleResult;
+        /**
+         * matches with a higher priority are played first, 0 by default. Within a priority TournamentScheduler
+         * already plays the matches with the slowest games first, so only set it to overrule that
+         */
+        public int priority;
 
         public Match(PylosPlayerType ppt1, PylosPlayerType ppt2) {
+            this(ppt1, ppt2, 0);
+        }
+
+        public Match(PylosPlayerType ppt1, PylosPlayerType ppt2, int priority) {
             this.ppt1 = ppt1;
             this.ppt2 = ppt2;
+            this.priority = priority;
         }
 
         @Override
@@ -0,0 +1,129 @@
+package be.kuleuven.pylos.battle;
+
+import be.kuleuven.pylos.player.PylosSearchInfo;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sums the PylosSearchInfo events of one player over a battle, to compare engine versions beyond win rates.
+ * Players that don't send search info leave it empty (getMoves() == 0).
+ * <p>
+ * Thread-safe: the sums are LongAdders, so the workers of a battle can add to one instance and it can be read
+ * while they do.
+ */
+public class SearchStatistics {
+
+    private final LongAdder iterations = new LongAdder();
+    private final LongAdder moves = new LongAdder();
+    private final LongAdder depthOfMoves = new LongAdder();         // sum of the depth reached per move
+    private final DoubleAdder ebfOfMoves = new DoubleAdder();       // sum of the effective branching factor of the last iteration per move
+    private final LongAdder nodes = new LongAdder();
+    private final LongAdder nanos = new LongAdder();
+    private final LongAdder ttProbes = new LongAdder();
+    private final LongAdder ttHits = new LongAdder();
+    private final LongAdder ttStores = new LongAdder();
+    private final LongAdder ttCollisions = new LongAdder();
+    private final LongAdder cutoffs = new LongAdder();
+    private final LongAdder firstMoveCutoffs = new LongAdder();
+
+    public void add(PylosSearchInfo info) {
+        iterations.increment();
+        nodes.add(info.nodes);
+        nanos.add(info.nanos);
+        ttProbes.add(info.ttProbes);
+        ttHits.add(info.ttHits);
+        ttStores.add(info.ttStores);
+        ttCollisions.add(info.ttCollisions);
+        cutoffs.add(info.cutoffs);
+        firstMoveCutoffs.add(info.firstMoveCutoffs);
+        if (info.last) {
+            moves.increment();
+            depthOfMoves.add(info.depth);
+            ebfOfMoves.add(info.getEffectiveBranchingFactor());
+        }
+    }
+
+    /**
+     * adds the sums of 's' to these
+     *
+     * @param s
+     */
+    public void add(SearchStatistics s) {
+        iterations.add(s.iterations.sum());
+        moves.add(s.moves.sum());
+        depthOfMoves.add(s.depthOfMoves.sum());
+        ebfOfMoves.add(s.ebfOfMoves.sum());
+        nodes.add(s.nodes.sum());
+        nanos.add(s.nanos.sum());
+        ttProbes.add(s.ttProbes.sum());
+        ttHits.add(s.ttHits.sum());
+        ttStores.add(s.ttStores.sum());
+        ttCollisions.add(s.ttCollisions.sum());
+        cutoffs.add(s.cutoffs.sum());
+        firstMoveCutoffs.add(s.firstMoveCutoffs.sum());
+    }
+
+    public static SearchStatistics merge(Collection<SearchStatistics> statistics) {
+        SearchStatistics merged = new SearchStatistics();
+        for (SearchStatistics s : statistics) {
+            merged.add(s);
+        }
+        return merged;
+    }
+
+    public long getMoves() {
+        return moves.sum();
+    }
+
+    public long getIterations() {
+        return iterations.sum();
+    }
+
+    public long getNodes() {
+        return nodes.sum();
+    }
+
+    public double getAverageDepth() {
+        return ratio(depthOfMoves.sum(), moves.sum());
+    }
+
+    public double getAverageNodesPerMove() {
+        return ratio(nodes.sum(), moves.sum());
+    }
+
+    public double getNodesPerSecond() {
+        return ratio(nodes.sum() * 1e9, nanos.sum());
+    }
+
+    public double getTtHitRate() {
+        return ratio(ttHits.sum(), ttProbes.sum());
+    }
+
+    public double getTtCollisionRate() {
+        return ratio(ttCollisions.sum(), ttStores.sum());
+    }
+
+    public double getFirstMoveCutoffRate() {
+        return ratio(firstMoveCutoffs.sum(), cutoffs.sum());
+    }
+
+    public double getAverageEffectiveBranchingFactor() {
+        return ratio(ebfOfMoves.sum(), moves.sum());
+    }
+
+    private static double ratio(double sum, long count) {
+        return count == 0 ? 0 : sum / count;
+    }
+
+    public String toString() {
+        return "depth " + String.format("%.2f", getAverageDepth())
+                + ", nodes/move " + String.format("%.0f", getAverageNodesPerMove())
+                + ", nodes/sec " + String.format("%.0f", getNodesPerSecond())
+                + ", TT hits " + String.format("%.1f", getTtHitRate() * 100) + "%"
+                + ", TT collisions " + String.format("%.1f", getTtCollisionRate() * 100) + "%"
+                + ", 1st move cutoffs " + String.format("%.1f", getFirstMoveCutoffRate() * 100) + "%"
+                + ", EBF " + String.format("%.2f", getAverageEffectiveBranchingFactor());
+    }
+}
@@ -0,0 +1,155 @@
+package be.kuleuven.pylos.battle;
+
+/**
+ * Sequential probability ratio test on the Elo difference between p1 and p2 of a battle, to stop as soon as the
+ * result is clear instead of after a fixed number of games.
+ * <p>
+ * H0: p1 is elo0 stronger than p2, H1: p1 is elo1 stronger (elo0 < elo1, logistic Elo). Games are counted in pairs
+ * with the same players and swapped colors, so the advantage of starting cancels out; each pair scores 0, 0.5, 1,
+ * 1.5 or 2 for p1 (pentanomial). The log-likelihood ratio is the generalized SPRT approximation on the mean pair
+ * score, LLR = n (s1 - s0) (2 mean - s0 - s1) / (2 var), with s0 and s1 the expected scores under H0 and H1 and the
+ * variance measured on the pairs so far. H1 is accepted when the LLR reaches log((1 - beta) / alpha), H0 when it
+ * drops to log(beta / (1 - alpha)).
+ * <p>
+ * Thread-safe. Once a hypothesis is accepted, later pairs are ignored, so the statistics are those of the decision.
+ */
+public class Sprt {
+
+    public enum State {
+        CONTINUE, ACCEPT_H0, ACCEPT_H1
+    }
+
+    /* pseudo-count per pair outcome: without it the first few pairs, which often end the same, have a variance of
+       about 0 and an LLR that crosses a bound right away */
+    private static final double PRIOR = 0.5;
+    private static final double Z_95 = 1.959964;
+
+    private final double elo0, elo1;
+    private final double alpha, beta;
+    private final double s0, s1;
+    private final double lowerBound, upperBound;
+
+    /* [2 * pair score] number of pairs */
+    private final long[] pairs = new long[5];
+    private State state = State.CONTINUE;
+
+    /**
+     * @param elo0  Elo difference of H0
+     * @param elo1  Elo difference of H1, larger than elo0
+     * @param alpha probability of accepting H1 when H0 is true
+     * @param beta  probability of accepting H0 when H1 is true
+     */
+    public Sprt(double elo0, double elo1, double alpha, double beta) {
+        if (!(elo0 < elo1)) {
+            throw new IllegalArgumentException("elo0 should be smaller than elo1, got " + elo0 + " and " + elo1);
+        }
+        if (!(alpha > 0 && alpha < 1 && beta > 0 && beta < 1)) {
+            throw new IllegalArgumentException("alpha and beta should be between 0 and 1, got " + alpha + " and " + beta);
+        }
+        this.elo0 = elo0;
+        this.elo1 = elo1;
+        this.alpha = alpha;
+        this.beta = beta;
+        this.s0 = score(elo0);
+        this.s1 = score(elo1);
+        this.lowerBound = Math.log(beta / (1 - alpha));
+        this.upperBound = Math.log((1 - beta) / alpha);
+    }
+
+    /**
+     * adds the result of a pair of games and returns the state after it
+     *
+     * @param pairScore score of p1 over both games: 0, 0.5, 1, 1.5 or 2
+     * @return
+     */
+    public synchronized State add(double pairScore) {
+        int outcome = (int) Math.round(pairScore * 2);
+        if (outcome < 0 || outcome > 4) {
+            throw new IllegalArgumentException("A pair of games scores between 0 and 2, got " + pairScore);
+        }
+        if (state != State.CONTINUE) return state;
+        pairs[outcome]++;
+        double llr = getLlr();
+        if (llr >= upperBound) state = State.ACCEPT_H1;
+        else if (llr <= lowerBound) state = State.ACCEPT_H0;
+        return state;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized boolean isDecided() {
+        return state != State.CONTINUE;
+    }
+
+    public synchronized long getPairs() {
+        long n = 0;
+        for (long count : pairs) n += count;
+        return n;
+    }
+
+    public synchronized double getLlr() {
+        double[] stats = meanAndVariance();
+        return stats[2] * (s1 - s0) * (2 * stats[0] - s0 - s1) / (2 * stats[1]);
+    }
+
+    public double getLowerBound() {
+        return lowerBound;
+    }
+
+    public double getUpperBound() {
+        return upperBound;
+    }
+
+    /**
+     * returns the Elo difference p1 - p2 estimated from the mean pair score
+     *
+     * @return
+     */
+    public synchronized double getElo() {
+        return elo(meanAndVariance()[0]);
+    }
+
+    /**
+     * returns the 95% confidence interval of getElo() as {lower, upper}
+     *
+     * @return
+     */
+    public synchronized double[] getEloInterval() {
+        double[] stats = meanAndVariance();
+        double margin = Z_95 * Math.sqrt(stats[1] / stats[2]);
+        return new double[]{elo(stats[0] - margin), elo(stats[0] + margin)};
+    }
+
+    /* {mean, variance, count} of the pair score / 2 (0..1), with PRIOR added to every outcome */
+    private double[] meanAndVariance() {
+        double n = 0, sum = 0, sumOfSquares = 0;
+        for (int outcome = 0; outcome < pairs.length; outcome++) {
+            double count = pairs[outcome] + PRIOR;
+            double x = outcome / 4.0;
+            n += count;
+            sum += count * x;
+            sumOfSquares += count * x * x;
+        }
+        double mean = sum / n;
+        return new double[]{mean, sumOfSquares / n - mean * mean, n};
+    }
+
+    /* expected score of a player 'elo' stronger */
+    private static double score(double elo) {
+        return 1 / (1 + Math.pow(10, -elo / 400));
+    }
+
+    private static double elo(double score) {
+        double s = Math.min(Math.max(score, 1e-6), 1 - 1e-6);
+        return -400 * Math.log10(1 / s - 1);
+    }
+
+    public synchronized String toString() {
+        double[] interval = getEloInterval();
+        return String.format("SPRT elo0 %.1f, elo1 %.1f, alpha %.3f, beta %.3f: LLR %.2f [%.2f, %.2f], %s after %d pairs [%d %d %d %d %d], Elo %.1f (95%% %.1f .. %.1f)",
+                elo0, elo1, alpha, beta, getLlr(), lowerBound, upperBound, state, getPairs(),
+                pairs[0], pairs[1], pairs[2], pairs[3], pairs[4], getElo(), interval[0], interval[1]);
+    }
+}
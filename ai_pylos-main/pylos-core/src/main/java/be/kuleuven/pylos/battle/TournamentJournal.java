@@ -0,0 +1,218 @@
+package be.kuleuven.pylos.battle;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Append-only journal of the games of a tournament, so a TournamentScheduler that stopped (killed, crashed JVM) can
+ * resume where it was instead of starting over.
+ * <p>
+ * Layout (big-endian):
+ * <pre>
+ *     int MAGIC, int VERSION, long seed of the tournament
+ *     records:
+ *         MATCH, int match id, UTF ppt1, UTF ppt2   (the match ids of the run that writes the games after it)
+ *         GAME, int match id, int game, byte outcome (1 p1 wins, 0 draw, -1 p2 wins), long run time (ms)
+ * </pre>
+ * Games are buffered and written in batches of BATCH_GAMES (or when FSYNC_NANOS passed), and the file is synced to
+ * disk at most every FSYNC_NANOS and on close(). A JVM that dies loses the batch it was filling, a machine that goes
+ * down the games since the last sync. When the journal is opened again, everything after the last valid record is cut
+ * off: a record that was only partly written, or garbage the file system left at the end.
+ * <p>
+ * Only outcomes and run times are kept: resumed games have no search statistics, move times or played games.
+ */
+public class TournamentJournal implements Closeable {
+
+    static final int MAGIC = 0x50594C4A;    // "PYLJ"
+    static final int VERSION = 1;
+    private static final byte MATCH = 1;
+    private static final byte GAME = 2;
+
+    private static final int BATCH_GAMES = 32;
+    private static final long FSYNC_NANOS = 5_000_000_000L;
+
+    /** a game read from the journal */
+    public static final class Game {
+        public final int game;
+        /** 1 p1 wins, 0 draw, -1 p2 wins */
+        public final byte outcome;
+        public final long runTime;
+
+        Game(int game, byte outcome, long runTime) {
+            this.game = game;
+            this.outcome = outcome;
+            this.runTime = runTime;
+        }
+    }
+
+    private final FileChannel channel;
+    private final long seed;
+    /* games of earlier runs, by ppt1 + "\n" + ppt2 */
+    private final Map<String, List<Game>> completed;
+
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(buffer);
+    private int buffered;
+    private long lastSync = System.nanoTime();
+
+    private TournamentJournal(FileChannel channel, long seed, Map<String, List<Game>> completed) {
+        this.channel = channel;
+        this.seed = seed;
+        this.completed = completed;
+    }
+
+    /**
+     * opens 'file' to append to it, after reading the games in it; creates it if it doesn't exist
+     *
+     * @param file
+     * @param seed the seed of a new journal; an existing one keeps its own, see getSeed()
+     * @return
+     * @throws IOException
+     */
+    public static TournamentJournal open(Path file, long seed) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            Map<String, List<Game>> completed = new HashMap<>();
+            if (channel.size() == 0) {
+                ByteBuffer header = ByteBuffer.allocate(16).putInt(MAGIC).putInt(VERSION).putLong(seed).flip();
+                while (header.hasRemaining()) channel.write(header);
+                channel.force(true);
+            } else {
+                byte[] bytes = Files.readAllBytes(file);
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+                if (bytes.length < 16 || in.readInt() != MAGIC) throw new IOException(file + ": not a tournament journal");
+                int version = in.readInt();
+                if (version != VERSION) throw new IOException(file + ": unsupported journal version " + version);
+                seed = in.readLong();
+                // cut off a record that was being written when the JVM died, or garbage after the last record
+                int invalid = read(in, completed);
+                if (invalid > 0) {
+                    System.err.println(file + ": cutting off " + invalid + " bytes after the last complete record");
+                    channel.truncate(bytes.length - invalid);
+                }
+            }
+            channel.position(channel.size());
+            return new TournamentJournal(channel, seed, completed);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /*
+     * reads records until the end and returns the number of bytes after the last valid one: a record that was only
+     * partly written, or garbage (e.g. zeroes) where a machine that went down left the end of the file unwritten
+     */
+    private static int read(DataInputStream in, Map<String, List<Game>> completed) throws IOException {
+        Map<Integer, String> matches = new HashMap<>();
+        int left = in.available();
+        try {
+            while (left > 0) {
+                byte type = in.readByte();
+                if (type == MATCH) {
+                    int id = in.readInt();
+                    String ppt1 = in.readUTF();
+                    String ppt2 = in.readUTF();
+                    matches.put(id, ppt1 + "\n" + ppt2);
+                } else if (type == GAME) {
+                    String match = matches.get(in.readInt());
+                    int game = in.readInt();
+                    byte outcome = in.readByte();
+                    long runTime = in.readLong();
+                    if (match == null || game < 0 || outcome < -1 || outcome > 1 || runTime < 0) return left;
+                    completed.computeIfAbsent(match, k -> new ArrayList<>()).add(new Game(game, outcome, runTime));
+                } else {
+                    return left;
+                }
+                left = in.available();
+            }
+        } catch (EOFException | UTFDataFormatException e) {
+            // a partial record, or garbage that doesn't even decode
+        }
+        return left;
+    }
+
+    /**
+     * returns the seed the tournament was started with
+     *
+     * @return
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * returns the games of ppt1 vs. ppt2 in the journal when it was opened (in the order they were played)
+     *
+     * @param ppt1
+     * @param ppt2
+     * @return
+     */
+    public List<Game> getCompleted(String ppt1, String ppt2) {
+        return completed.getOrDefault(ppt1 + "\n" + ppt2, List.of());
+    }
+
+    /**
+     * declares match 'id' for the games added after it
+     *
+     * @param id
+     * @param ppt1
+     * @param ppt2
+     * @throws IOException
+     */
+    public synchronized void addMatch(int id, String ppt1, String ppt2) throws IOException {
+        out.writeByte(MATCH);
+        out.writeInt(id);
+        out.writeUTF(ppt1);
+        out.writeUTF(ppt2);
+    }
+
+    /**
+     * adds a game; written once a batch is full or FSYNC_NANOS passed since the last sync
+     *
+     * @param match   id of addMatch(..)
+     * @param game
+     * @param outcome 1 p1 wins, 0 draw, -1 p2 wins
+     * @param runTime
+     * @throws IOException
+     */
+    public synchronized void addGame(int match, int game, byte outcome, long runTime) throws IOException {
+        out.writeByte(GAME);
+        out.writeInt(match);
+        out.writeInt(game);
+        out.writeByte(outcome);
+        out.writeLong(runTime);
+        if (++buffered >= BATCH_GAMES || System.nanoTime() - lastSync >= FSYNC_NANOS) flush(false);
+    }
+
+    /**
+     * writes the buffered records, and syncs them to disk if 'sync' or the last sync is FSYNC_NANOS ago
+     *
+     * @param sync
+     * @throws IOException
+     */
+    public synchronized void flush(boolean sync) throws IOException {
+        ByteBuffer records = ByteBuffer.wrap(buffer.toByteArray());
+        while (records.hasRemaining()) channel.write(records);
+        buffer.reset();
+        buffered = 0;
+        if (sync || System.nanoTime() - lastSync >= FSYNC_NANOS) {
+            channel.force(false);
+            lastSync = System.nanoTime();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            flush(true);
+        } finally {
+            channel.close();
+        }
+    }
+}
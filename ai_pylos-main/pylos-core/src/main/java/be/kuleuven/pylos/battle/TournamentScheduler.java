@@ -0,0 +1,323 @@
+package be.kuleuven.pylos.battle;
+
+import be.kuleuven.pylos.battle.data.PlayedGame;
+import be.kuleuven.pylos.player.PylosPlayer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Plays all games of a set of matches on one pool of threads. The games of all matches form one queue, handed out
+ * game by game, so a slow match never holds the other threads at a barrier. The first PROBE_GAMES games of every
+ * match come first in the queue, to time them. After those, a thread takes the next game of the match with the
+ * highest priority and, within a priority, the slowest games so far (a match without a timed game counts as
+ * slowest), so long-running pairings are not the last ones running on a few threads at the end. Set Match.priority
+ * to overrule that order.
+ * <p>
+ * A match's battleResult is filled in as soon as its last game has finished. Players come from the PlayerPool of
+ * the worker thread.
+ * <p>
+ * Every game has its own Random, seeded from the tournament seed, the names of the players and the game index, so a
+ * game is the same whichever thread plays it and whenever (for players that only use PylosPlayer.getRandom()). With
+ * a TournamentJournal every finished game is journaled, and a tournament played again with the same journal skips
+ * the games in it and keeps the seed it was started with.
+ * <p>
+ * If a game throws, the other threads stop after their current game and play(..) rethrows.
+ */
+public class TournamentScheduler {
+
+    /* games of every match handed out first, to order the matches by the time their games take */
+    private static final int PROBE_GAMES = 2;
+
+    private final List<RoundRobin.Match> matches;
+    private final int nRuns;
+    private final boolean print;
+    private long seed;
+
+    private final List<BattleAggregator> aggregators = new ArrayList<>();
+    private final List<Queue<PlayedGame>> playedGames = new ArrayList<>();
+    private final List<AtomicInteger> remaining = new ArrayList<>();
+    private final AtomicInteger finished = new AtomicInteger();
+    /* play time of the games of every match, the ones resumed from a journal included */
+    private final AtomicLongArray matchNanos;
+    private final AtomicIntegerArray matchGames;
+    /* guarded by 'this': the probe games (global indices: match * nRuns + game) in the order they are handed out,
+       then per match the indices of its other games still to play */
+    private int[] probeGames;
+    private int probeNext;
+    private int[][] restGames;
+    private int[] restNext;
+    private boolean stopped;
+    private TournamentJournal journal;
+    private long moveMillis;
+    private long gameMillis;
+
+    /**
+     * @param matches
+     * @param nRuns   games per match, even: ppt1 and ppt2 both start half of them
+     * @param print   print every match when it finishes
+     */
+    public TournamentScheduler(Collection<RoundRobin.Match> matches, int nRuns, boolean print) {
+        this(matches, nRuns, print, new Random().nextLong());
+    }
+
+    /**
+     * @param matches
+     * @param nRuns   games per match, even: ppt1 and ppt2 both start half of them
+     * @param print   print every match when it finishes
+     * @param seed    seed of the games
+     */
+    public TournamentScheduler(Collection<RoundRobin.Match> matches, int nRuns, boolean print, long seed) {
+        if (nRuns % 2 != 0) {
+            throw new IllegalArgumentException("Please specify an even number of runs");
+        }
+        this.matches = new ArrayList<>(matches);
+        this.matches.sort(Comparator.comparingInt((RoundRobin.Match m) -> m.priority).reversed());
+        this.nRuns = nRuns;
+        this.print = print;
+        this.seed = seed;
+        for (RoundRobin.Match match : this.matches) {
+            Queue<PlayedGame> games = new ConcurrentLinkedQueue<>();
+            playedGames.add(games);
+            aggregators.add(new BattleAggregator(match.ppt1, match.ppt2, games::add));
+            remaining.add(new AtomicInteger(nRuns));
+        }
+        this.matchNanos = new AtomicLongArray(this.matches.size());
+        this.matchGames = new AtomicIntegerArray(this.matches.size());
+    }
+
+    /**
+     * sets time limits for all games: a player that goes over its time forfeits the game, see GameWatchdog
+     *
+     * @param moveMillis time per call of doMove/doRemove/doRemoveOrPass, 0 for no limit
+     * @param gameMillis thinking time per player per game, 0 for no limit
+     */
+    public void setTimeLimits(long moveMillis, long gameMillis) {
+        this.moveMillis = moveMillis;
+        this.gameMillis = gameMillis;
+    }
+
+    /**
+     * plays all games on 'nThreads' threads and returns when all matches have their battleResult
+     *
+     * @param nThreads
+     */
+    public void play(int nThreads) {
+        List<Integer> games = new ArrayList<>();
+        for (int i = 0; i < matches.size() * nRuns; i++) games.add(i);
+        schedule(nThreads, games);
+    }
+
+    /**
+     * like play(nThreads), journaling every game in 'journalFile'. If the file exists, the games in it are counted
+     * as played and only the others are played.
+     *
+     * @param nThreads
+     * @param journalFile
+     * @throws IOException if the journal can't be read or written
+     */
+    public void play(int nThreads, Path journalFile) throws IOException {
+        try (TournamentJournal journal = TournamentJournal.open(journalFile, seed)) {
+            this.journal = journal;
+            this.seed = journal.getSeed();
+            int resumed = 0;
+            List<Integer> games = new ArrayList<>();
+            for (int m = 0; m < matches.size(); m++) {
+                RoundRobin.Match match = matches.get(m);
+                BitSet played = new BitSet(nRuns);
+                for (TournamentJournal.Game game : journal.getCompleted(match.ppt1.toString(), match.ppt2.toString())) {
+                    if (game.game >= nRuns || played.get(game.game)) continue;
+                    played.set(game.game);
+                    aggregators.get(m).add(BattleResult.ofOutcome(match.ppt1, match.ppt2, game.game % 2 == 0, game.outcome, game.runTime));
+                    matchNanos.addAndGet(m, game.runTime * 1_000_000L);
+                    matchGames.incrementAndGet(m);
+                    remaining.get(m).decrementAndGet();
+                    resumed++;
+                }
+                for (int game = played.nextClearBit(0); game < nRuns; game = played.nextClearBit(game + 1)) {
+                    games.add(m * nRuns + game);
+                }
+                journal.addMatch(m, match.ppt1.toString(), match.ppt2.toString());
+            }
+            if (resumed > 0) {
+                System.out.println("Resuming from " + journalFile + ": " + resumed + " games already played");
+            }
+            for (int m = 0; m < matches.size(); m++) {
+                if (remaining.get(m).get() == 0) finish(m);
+            }
+            try {
+                schedule(nThreads, games);
+            } catch (RuntimeException e) {
+                if (e.getCause() instanceof UncheckedIOException) throw ((UncheckedIOException) e.getCause()).getCause();
+                throw e;
+            }
+        } finally {
+            journal = null;
+        }
+    }
+
+    /*
+     * plays 'games' (global game indices, in match order): first the PROBE_GAMES of every match that has fewer timed
+     * games, then the others as nextGame() picks them
+     */
+    private void schedule(int nThreads, List<Integer> games) {
+        List<Integer> probe = new ArrayList<>();
+        List<List<Integer>> rest = new ArrayList<>();
+        for (int m = 0; m < matches.size(); m++) rest.add(new ArrayList<>());
+        int[] probed = new int[matches.size()];
+        for (int game : games) {
+            int m = game / nRuns;
+            if (probed[m]++ < PROBE_GAMES - matchGames.get(m)) probe.add(game);
+            else rest.get(m).add(game % nRuns);
+        }
+        synchronized (this) {
+            probeGames = probe.stream().mapToInt(Integer::intValue).toArray();
+            probeNext = 0;
+            restGames = rest.stream().map(r -> r.stream().mapToInt(Integer::intValue).toArray()).toArray(int[][]::new);
+            restNext = new int[matches.size()];
+            stopped = false;
+        }
+        if (games.isEmpty()) return;
+
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        List<Future<?>> workers = new ArrayList<>();
+        for (int i = 0; i < nThreads; i++) {
+            workers.add(pool.submit(this::work));
+        }
+        pool.shutdown();
+
+        try {
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        } catch (ExecutionException e) {
+            stop();
+            pool.shutdownNow();
+            throw new RuntimeException("Not all matches were completed!", e.getCause());
+        } catch (InterruptedException e) {
+            stop();
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for the matches", e);
+        }
+    }
+
+    /*
+     * returns the global index of the next game to play, -1 if there is none: a probe game while there are any, then
+     * the next game of the match with the highest priority and the slowest games so far
+     */
+    private synchronized int nextGame() {
+        if (stopped) return -1;
+        if (probeNext < probeGames.length) return probeGames[probeNext++];
+        int best = -1;
+        double bestNanos = 0;
+        for (int m = 0; m < matches.size(); m++) {
+            if (restNext[m] == restGames[m].length) continue;
+            // matches are sorted by priority: a later match only wins within the same priority
+            if (best >= 0 && matches.get(m).priority < matches.get(best).priority) break;
+            double nanos = meanGameNanos(m);
+            if (best < 0 || nanos > bestNanos) {
+                best = m;
+                bestNanos = nanos;
+            }
+        }
+        return best < 0 ? -1 : best * nRuns + restGames[best][restNext[best]++];
+    }
+
+    /* mean time of the games of match m so far, infinite before the first one finished */
+    private double meanGameNanos(int m) {
+        int games = matchGames.get(m);
+        return games == 0 ? Double.POSITIVE_INFINITY : (double) matchNanos.get(m) / games;
+    }
+
+    private void work() {
+        GameWatchdog watchdog = moveMillis > 0 || gameMillis > 0 ? new GameWatchdog(moveMillis, gameMillis) : null;
+        try {
+            int game;
+            while ((game = nextGame()) >= 0) {
+                play(game / nRuns, game % nRuns, watchdog);
+            }
+        } catch (RuntimeException | Error e) {
+            stop();
+            throw e;
+        } finally {
+            if (watchdog != null) watchdog.close();
+        }
+    }
+
+    /* no more games are handed out */
+    private synchronized void stop() {
+        stopped = true;
+    }
+
+    private void play(int m, int game, GameWatchdog watchdog) {
+        RoundRobin.Match match = matches.get(m);
+        PylosPlayer p1 = PlayerPool.acquire(match.ppt1);
+        PylosPlayer p2 = PlayerPool.acquire(match.ppt2);
+        BattleResult result;
+        long start = System.nanoTime();
+        try {
+            result = Battle.playGame(match.ppt1, match.ppt2, p1, p2, game % 2 == 0, new Random(gameSeed(match, game)), watchdog);
+        } finally {
+            // players of an abandoned game are still in use by it
+            if (watchdog == null || !watchdog.lastGameAbandoned()) {
+                PlayerPool.release(match.ppt1, p1);
+                PlayerPool.release(match.ppt2, p2);
+            }
+        }
+        matchNanos.addAndGet(m, System.nanoTime() - start);
+        matchGames.incrementAndGet(m);
+        aggregators.get(m).add(result);
+        if (journal != null) {
+            try {
+                journal.addGame(m, game, (byte) result.outcome(), result.runTime);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        if (remaining.get(m).decrementAndGet() == 0) {
+            finish(m);
+        }
+    }
+
+    /* splitmix64 over the seed, the players and the game index */
+    private long gameSeed(RoundRobin.Match match, int game) {
+        long h = mix(seed + match.ppt1.toString().hashCode());
+        h = mix(h + match.ppt2.toString().hashCode());
+        return mix(h + game);
+    }
+
+    private static long mix(long z) {
+        z += 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private void finish(int m) {
+        RoundRobin.Match match = matches.get(m);
+        if (journal != null) {
+            // a finished match is on disk before it is reported
+            try {
+                journal.flush(true);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        BattleResult result = aggregators.get(m).snapshot();
+        result.playedGames = new ArrayList<>(playedGames.get(m));
+        match.battleResult = result;
+        playedGames.get(m).clear();
+        int n = finished.incrementAndGet();
+        if (print) {
+            System.out.println("\t" + n + "/" + matches.size() + ": " + match.ppt1 + " vs. " + match.ppt2
+                    + " (" + result.p1Wins() + " - " + result.p2Wins() + ")");
+        }
+    }
+}
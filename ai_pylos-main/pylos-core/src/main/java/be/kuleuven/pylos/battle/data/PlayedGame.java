@@ -23,4 +23,17 @@ public class PlayedGame {
             case null -> 0;
         };
     }
+
+    /**
+     * @param boardHistory
+     * @param lightPlayer
+     * @param darkPlayer
+     * @param winner       1 light, -1 dark, 0 draw
+     */
+    public PlayedGame(List<Long> boardHistory, String lightPlayer, String darkPlayer, int winner) {
+        this.boardHistory = boardHistory;
+        this.lightPlayer = lightPlayer;
+        this.darkPlayer = darkPlayer;
+        this.winner = winner;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,203 @@
+package be.kuleuven.pylos.battle.data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary archive of played games, written by PlayedGameWriter and read here from a memory-mapped file, with random
+ * access by game index.
+ * <p>
+ * Layout (big-endian):
+ * <pre>
+ *     int MAGIC, int VERSION
+ *     per game: int length of the record, then the record:
+ *         short + UTF-8 light player, short + UTF-8 dark player, byte winner (1 light, -1 dark, 0 draw),
+ *         varint number of states, the steps
+ *     index (written by close()): long offset of every record
+ *     int number of games, long offset of the index, int INDEX_MAGIC
+ * </pre>
+ * A step is the change from the previous board state (the empty board before the first one): one byte per
+ * location that changed, location in bits 0-4, its new 2-bit cell in bits 5-6, bit 7 set on the last byte of the
+ * step. A placement or removal is 1 byte, a move 2; a step without changes is the single byte NO_CHANGE.
+ * <p>
+ * Archives that were not closed (no index) are still readable: the records are scanned when the archive is opened.
+ * Archives are limited to 2 GB (one mapped buffer).
+ */
+public class PlayedGameArchive {
+
+    public static final String EXTENSION = ".games";
+
+    static final int MAGIC = 0x50594C47;        // "PYLG"
+    static final int VERSION = 1;
+    static final int INDEX_MAGIC = 0x50594C49;  // "PYLI"
+    static final int HEADER_SIZE = 8;
+    static final int FOOTER_SIZE = 16;
+
+    static final int LOCATION_BITS = 5;
+    static final int LAST_OF_STEP = 0x80;
+    static final int NO_CHANGE = 31 | LAST_OF_STEP;
+
+    private final ByteBuffer buffer;
+    private final long[] offsets;
+
+    private PlayedGameArchive(ByteBuffer buffer, long[] offsets) {
+        this.buffer = buffer;
+        this.offsets = offsets;
+    }
+
+    /**
+     * maps 'file' and reads its index (or scans its records if it has none)
+     *
+     * @param file
+     * @return
+     * @throws IOException if the file is not an archive, is damaged or is larger than 2 GB
+     */
+    public static PlayedGameArchive open(Path file) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(file + ": archives larger than 2 GB are not supported");
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException(file + ": not a game archive");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException(file + ": unsupported archive version " + buffer.getInt(4));
+        }
+        try {
+            return new PlayedGameArchive(buffer, hasIndex(buffer) ? readIndex(buffer) : scan(buffer));
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException(file + ": damaged archive", e);
+        }
+    }
+
+    private static boolean hasIndex(ByteBuffer buffer) {
+        return buffer.limit() >= HEADER_SIZE + FOOTER_SIZE && buffer.getInt(buffer.limit() - 4) == INDEX_MAGIC;
+    }
+
+    private static long[] readIndex(ByteBuffer buffer) {
+        int footer = buffer.limit() - FOOTER_SIZE;
+        int count = buffer.getInt(footer);
+        int index = (int) buffer.getLong(footer + 4);
+        long[] offsets = new long[count];
+        for (int i = 0; i < count; i++) offsets[i] = buffer.getLong(index + 8 * i);
+        return offsets;
+    }
+
+    /* offsets of the complete records, for an archive whose writer didn't get to write the index */
+    private static long[] scan(ByteBuffer buffer) {
+        List<Long> offsets = new ArrayList<>();
+        int offset = HEADER_SIZE;
+        while (offset + 4 <= buffer.limit()) {
+            int length = buffer.getInt(offset);
+            if (length <= 0 || offset + 4 + length > buffer.limit()) break;
+            offsets.add((long) offset);
+            offset += 4 + length;
+        }
+        return offsets.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    public int size() {
+        return offsets.length;
+    }
+
+    /**
+     * returns game 'index' (in the order the games were written)
+     *
+     * @param index
+     * @return
+     */
+    public PlayedGame get(int index) {
+        Reader reader = new Reader(buffer, (int) offsets[index] + 4);
+        String light = reader.string();
+        String dark = reader.string();
+        int winner = reader.buffer.get(reader.position++);
+        long[] states = reader.states();
+        List<Long> boardHistory = new ArrayList<>(states.length);
+        for (long state : states) boardHistory.add(state);
+        return new PlayedGame(boardHistory, light, dark, winner);
+    }
+
+    /**
+     * returns the winner of game 'index': 1 light, -1 dark, 0 draw
+     *
+     * @param index
+     * @return
+     */
+    public int getWinner(int index) {
+        Reader reader = new Reader(buffer, (int) offsets[index] + 4);
+        reader.skipString();
+        reader.skipString();
+        return reader.buffer.get(reader.position);
+    }
+
+    /**
+     * returns the board states of game 'index', without boxing them
+     *
+     * @param index
+     * @return
+     */
+    public long[] getBoardHistory(int index) {
+        Reader reader = new Reader(buffer, (int) offsets[index] + 4);
+        reader.skipString();
+        reader.skipString();
+        reader.position++;
+        return reader.states();
+    }
+
+    /* reads one record with absolute gets, so several threads can read the archive at once */
+    private static final class Reader {
+        private final ByteBuffer buffer;
+        private int position;
+
+        Reader(ByteBuffer buffer, int position) {
+            this.buffer = buffer;
+            this.position = position;
+        }
+
+        String string() {
+            int length = buffer.getShort(position) & 0xFFFF;
+            byte[] bytes = new byte[length];
+            buffer.get(position + 2, bytes);
+            position += 2 + length;
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        void skipString() {
+            position += 2 + (buffer.getShort(position) & 0xFFFF);
+        }
+
+        long[] states() {
+            int n = 0;
+            for (int shift = 0; ; shift += 7) {
+                int b = buffer.get(position++);
+                n |= (b & 0x7F) << shift;
+                if (b >= 0) break;
+            }
+            long[] states = new long[n];
+            long state = 0;
+            for (int i = 0; i < n; i++) {
+                int b;
+                do {
+                    b = buffer.get(position++) & 0xFF;
+                    int location = b & (1 << LOCATION_BITS) - 1;
+                    if (b != NO_CHANGE) {
+                        long cell = b >>> LOCATION_BITS & 3;
+                        state = state & ~(3L << 2 * location) | cell << 2 * location;
+                    }
+                } while ((b & LAST_OF_STEP) == 0);
+                states[i] = state;
+            }
+            return states;
+        }
+    }
+}
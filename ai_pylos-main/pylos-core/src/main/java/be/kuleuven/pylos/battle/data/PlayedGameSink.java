@@ -0,0 +1,15 @@
+package be.kuleuven.pylos.battle.data;
+
+/**
+ * Receives the games of a battle one by one, as they finish: to write them to disk, reduce them, or drop them
+ * (NONE), so a long battle doesn't keep every game in memory.
+ * <p>
+ * accept(..) is called on the thread that played the game; with BattleMT that is several threads at once.
+ */
+public interface PlayedGameSink {
+
+    PlayedGameSink NONE = game -> {
+    };
+
+    void accept(PlayedGame game);
+}
@@ -0,0 +1,121 @@
+package be.kuleuven.pylos.battle.data;
+
+import be.kuleuven.pylos.game.PylosBitboard;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static be.kuleuven.pylos.battle.data.PlayedGameArchive.*;
+
+/**
+ * Streams played games into a binary archive (see PlayedGameArchive for the format), about one byte per step.
+ * <p>
+ * As a PlayedGameSink it can be handed to a BattleAggregator: games are written as they finish, from any thread.
+ * close() writes the index that PlayedGameArchive uses for random access.
+ */
+public class PlayedGameWriter implements PlayedGameSink, Closeable {
+
+    private final DataOutputStream out;
+    private final ByteArrayOutputStream record = new ByteArrayOutputStream();
+    private long position;
+    private long[] offsets = new long[1024];
+    private int count;
+
+    public PlayedGameWriter(Path file) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        position = HEADER_SIZE;
+    }
+
+    /**
+     * writes a game; an IOException is rethrown as UncheckedIOException (PlayedGameSink can't throw it)
+     *
+     * @param game
+     */
+    @Override
+    public void accept(PlayedGame game) {
+        try {
+            write(game);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public synchronized void write(PlayedGame game) throws IOException {
+        record.reset();
+        DataOutputStream data = new DataOutputStream(record);
+        writeString(data, game.lightPlayer);
+        writeString(data, game.darkPlayer);
+        data.writeByte(game.winner);
+        writeStates(data, game.boardHistory);
+
+        if (count == offsets.length) offsets = Arrays.copyOf(offsets, 2 * count);
+        offsets[count++] = position;
+        out.writeInt(record.size());
+        record.writeTo(out);
+        position += 4 + record.size();
+    }
+
+    /**
+     * returns the number of games written so far
+     *
+     * @return
+     */
+    public synchronized int getCount() {
+        return count;
+    }
+
+    /**
+     * writes the index and closes the file
+     *
+     * @throws IOException
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            for (int i = 0; i < count; i++) out.writeLong(offsets[i]);
+            out.writeInt(count);
+            out.writeLong(position);
+            out.writeInt(INDEX_MAGIC);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void writeString(DataOutputStream data, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) throw new IOException("Player name is too long: " + s);
+        data.writeShort(bytes.length);
+        data.write(bytes);
+    }
+
+    private static void writeStates(DataOutputStream data, List<Long> states) throws IOException {
+        int n = states.size();
+        while ((n & ~0x7F) != 0) {
+            data.writeByte(n & 0x7F | 0x80);
+            n >>>= 7;
+        }
+        data.writeByte(n);
+
+        long previous = 0;
+        for (long state : states) {
+            long changed = state ^ previous;
+            if (changed >>> 2 * PylosBitboard.N_LOCATIONS != 0) throw new IOException("Not a board state: " + Long.toHexString(state));
+            if (changed == 0) {
+                data.writeByte(NO_CHANGE);
+            }
+            while (changed != 0) {
+                int location = Long.numberOfTrailingZeros(changed) / 2;
+                changed &= ~(3L << 2 * location);
+                int cell = (int) (state >>> 2 * location & 3);
+                data.writeByte(location | cell << LOCATION_BITS | (changed == 0 ? LAST_OF_STEP : 0));
+            }
+            previous = state;
+        }
+    }
+}
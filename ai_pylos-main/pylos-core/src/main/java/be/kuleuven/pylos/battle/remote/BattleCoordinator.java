@@ -0,0 +1,382 @@
+package be.kuleuven.pylos.battle.remote;
+
+import be.kuleuven.pylos.battle.BattleAggregator;
+import be.kuleuven.pylos.battle.BattleResult;
+import be.kuleuven.pylos.battle.RoundRobin;
+import be.kuleuven.pylos.battle.data.PlayedGameSink;
+import be.kuleuven.pylos.player.PylosPlayerFactory;
+import be.kuleuven.pylos.player.PylosPlayerType;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static be.kuleuven.pylos.battle.remote.Protocol.*;
+
+/**
+ * Plays a battle or a round robin tournament in separate worker JVMs (BattleWorker), so players don't share a heap,
+ * a garbage collector or JIT profiles, and workers on other machines can join in.
+ * <p>
+ * The coordinator listens on a socket, spawns 'nWorkers' local workers that connect to it and hands out ranges of
+ * games. Workers send every game's outcome back as soon as it is played; the outcomes are added to a
+ * BattleAggregator per match. Players are passed by name and created in the worker by the PylosPlayerFactory, so
+ * the types of a battle must come from that factory (and the factory needs a public no-argument constructor).
+ * <p>
+ * A worker that disconnects (crashed JVM) or sends nothing for gameTimeoutMillis (hung game) is dropped, killed if
+ * it was spawned here and replaced; the games it had not finished are handed out again. Every game counts once,
+ * whichever worker reports it first. Only outcomes and run times come back: the search statistics and CPU times per
+ * call stay in the workers.
+ * <p>
+ * BattleLoopbackCheck runs a coordinator with local workers and checks the results, e.g. after changing the
+ * protocol.
+ */
+public class BattleCoordinator {
+
+    /* a game gets this many tries before the battle fails (e.g. a player that crashes its JVM every time) */
+    private static final int MAX_ATTEMPTS = 3;
+    /* number of tasks per worker and match to aim for: enough to balance the load, not so many that messages dominate */
+    private static final int TASKS_PER_WORKER = 8;
+    private static final int MAX_TASK_GAMES = 64;
+
+    private final Class<? extends PylosPlayerFactory> factory;
+    private final int nWorkers;
+    private final InetAddress bindAddress;
+    private final int port;
+    private long gameTimeoutMillis = TimeUnit.MINUTES.toMillis(5);
+
+    /**
+     * a coordinator that listens on loopback only, on a free port
+     *
+     * @param factory  creates the player types in the workers
+     * @param nWorkers number of worker JVMs to spawn
+     */
+    public BattleCoordinator(Class<? extends PylosPlayerFactory> factory, int nWorkers) {
+        this(factory, nWorkers, InetAddress.getLoopbackAddress(), 0);
+    }
+
+    /**
+     * @param factory     creates the player types in the workers
+     * @param nWorkers    number of worker JVMs to spawn, can be 0 if workers are started by hand
+     * @param bindAddress address to listen on, for workers on other machines
+     * @param port        0 for a free port
+     */
+    public BattleCoordinator(Class<? extends PylosPlayerFactory> factory, int nWorkers, InetAddress bindAddress, int port) {
+        this.factory = factory;
+        this.nWorkers = nWorkers;
+        this.bindAddress = bindAddress;
+        this.port = port;
+    }
+
+    /**
+     * sets how long a worker may take for one game before it counts as hung
+     *
+     * @param gameTimeoutMillis
+     */
+    public void setGameTimeoutMillis(long gameTimeoutMillis) {
+        this.gameTimeoutMillis = gameTimeoutMillis;
+    }
+
+    public BattleResult play(PylosPlayerType p1, PylosPlayerType p2, int runs, boolean print) {
+        RoundRobin.Match match = new RoundRobin.Match(p1, p2);
+        play(List.of(match), runs, false);
+        if (print) {
+            match.battleResult.print();
+        }
+        return match.battleResult;
+    }
+
+    /**
+     * plays all matches and fills in their battleResult (without played games)
+     *
+     * @param matches
+     * @param nRuns   games per match, even: ppt1 and ppt2 both start half of them
+     * @param print   print every match when it finishes
+     */
+    public void play(Collection<RoundRobin.Match> matches, int nRuns, boolean print) {
+        if (nRuns % 2 != 0) {
+            throw new IllegalArgumentException("Please specify an even number of runs");
+        }
+        try (Run run = new Run(new ArrayList<>(matches), nRuns, print)) {
+            run.play();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static final class Task {
+        final int id;
+        final int match;
+        final int from, to;
+        final int attempt;
+
+        Task(int id, int match, int from, int to, int attempt) {
+            this.id = id;
+            this.match = match;
+            this.from = from;
+            this.to = to;
+            this.attempt = attempt;
+        }
+    }
+
+    /* the state of one play(..) call: server socket, workers, tasks and results */
+    private final class Run implements Closeable {
+        private final List<RoundRobin.Match> matches;
+        private final int nRuns;
+        private final boolean print;
+
+        private final List<BattleAggregator> aggregators = new ArrayList<>();
+        private final List<BitSet> played = new ArrayList<>();
+        private final List<AtomicInteger> unplayed = new ArrayList<>();
+        private final AtomicInteger finishedMatches = new AtomicInteger();
+        private final CountDownLatch remaining;
+
+        private final BlockingDeque<Task> tasks = new LinkedBlockingDeque<>();
+        private final AtomicInteger nextTaskId = new AtomicInteger();
+        private final Map<Integer, Process> processes = new ConcurrentHashMap<>();
+        private final AtomicInteger nextWorkerId = new AtomicInteger();
+        private final AtomicInteger restarts = new AtomicInteger();
+
+        private final ServerSocket server;
+        private final List<Socket> sockets = Collections.synchronizedList(new ArrayList<>());
+        private volatile boolean finished;
+        private volatile Throwable failure;
+
+        Run(List<RoundRobin.Match> matches, int nRuns, boolean print) throws IOException {
+            this.matches = matches;
+            this.nRuns = nRuns;
+            this.print = print;
+            this.remaining = new CountDownLatch(matches.size() * nRuns);
+            this.server = new ServerSocket(port, 50, bindAddress);
+
+            int workers = Math.max(1, nWorkers);
+            int taskGames = Math.max(2, Math.min(MAX_TASK_GAMES, nRuns / (workers * TASKS_PER_WORKER)) & ~1);
+            for (int m = 0; m < matches.size(); m++) {
+                aggregators.add(new BattleAggregator(matches.get(m).ppt1, matches.get(m).ppt2, PlayedGameSink.NONE));
+                played.add(new BitSet(nRuns));
+                unplayed.add(new AtomicInteger(nRuns));
+                for (int from = 0; from < nRuns; from += taskGames) {
+                    tasks.add(new Task(nextTaskId.getAndIncrement(), m, from, Math.min(from + taskGames, nRuns), 1));
+                }
+            }
+        }
+
+        void play() throws IOException {
+            Thread acceptor = new Thread(this::accept, "BattleCoordinator-accept");
+            acceptor.setDaemon(true);
+            acceptor.start();
+            for (int i = 0; i < nWorkers; i++) {
+                spawn();
+            }
+            if (nWorkers == 0) {
+                System.out.println("Waiting for workers on " + server.getInetAddress().getHostAddress() + ":" + server.getLocalPort());
+            }
+
+            try {
+                while (!remaining.await(1, TimeUnit.SECONDS)) {
+                    // workers that died before they connected have no handler to notice
+                    processes.forEach((id, process) -> {
+                        if (!process.isAlive()) fail(id, null);
+                    });
+                    if (failure != null) {
+                        throw new RuntimeException("Not all battles were completed!", failure);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for the battles", e);
+            }
+        }
+
+        private void accept() {
+            while (!server.isClosed()) {
+                try {
+                    Socket socket = server.accept();
+                    sockets.add(socket);
+                    Thread handler = new Thread(() -> handle(socket), "BattleCoordinator-worker");
+                    handler.setDaemon(true);
+                    handler.start();
+                } catch (IOException e) {
+                    // closed
+                }
+            }
+        }
+
+        /* synchronized with close(), so no worker is started after it */
+        private synchronized void spawn() throws IOException {
+            if (finished) return;
+            int id = nextWorkerId.getAndIncrement();
+            List<String> command = new ArrayList<>();
+            command.add(ProcessHandle.current().info().command()
+                    .orElse(Path.of(System.getProperty("java.home"), "bin", "java").toString()));
+            for (String argument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+                // a debugger agent would try to listen on the same port
+                if (!argument.startsWith("-agentlib:jdwp")) command.add(argument);
+            }
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(BattleWorker.class.getName());
+            command.add(server.getInetAddress().getHostAddress());
+            command.add(String.valueOf(server.getLocalPort()));
+            command.add(String.valueOf(id));
+            Process process = new ProcessBuilder(command)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .start();
+            processes.put(id, process);
+        }
+
+        /* serves one worker until the run is finished or the worker fails */
+        private void handle(Socket socket) {
+            int id = -1;
+            Task task = null;
+            try {
+                socket.setTcpNoDelay(true);
+                socket.setSoTimeout((int) Math.min(Integer.MAX_VALUE, gameTimeoutMillis));
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                if (in.readInt() != MAGIC) throw new IOException("Not a battle worker");
+                id = in.readInt();
+                out.writeUTF(factory.getName());
+                out.flush();
+
+                while (!finished) {
+                    task = tasks.poll(100, TimeUnit.MILLISECONDS);
+                    if (task == null) continue;
+                    RoundRobin.Match match = matches.get(task.match);
+                    out.writeByte(TASK);
+                    out.writeInt(task.id);
+                    out.writeUTF(match.ppt1.toString());
+                    out.writeUTF(match.ppt2.toString());
+                    out.writeInt(task.from);
+                    out.writeInt(task.to);
+                    out.flush();
+                    while (true) {
+                        byte message = in.readByte();
+                        int taskId = in.readInt();
+                        if (taskId != task.id) throw new IOException("Result of task " + taskId + " while playing " + task.id);
+                        if (message == DONE) break;
+                        if (message != GAME) throw new IOException("Unexpected message " + message);
+                        int game = in.readInt();
+                        byte outcome = in.readByte();
+                        long runTime = in.readLong();
+                        record(task.match, game, outcome, runTime);
+                    }
+                    task = null;
+                }
+                out.writeByte(STOP);
+                out.flush();
+            } catch (SocketTimeoutException e) {
+                System.err.println("Worker " + id + " sent nothing for " + gameTimeoutMillis + " ms, giving its games to another worker");
+                fail(id, task);
+            } catch (IOException e) {
+                if (!finished) {
+                    System.err.println("Lost worker " + id + " (" + e + "), giving its games to another worker");
+                }
+                fail(id, task);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // closing anyway
+                }
+            }
+        }
+
+        private void record(int m, int game, byte outcome, long runTime) {
+            BitSet games = played.get(m);
+            synchronized (games) {
+                if (game < 0 || game >= nRuns || games.get(game)) return;
+                games.set(game);
+            }
+            RoundRobin.Match match = matches.get(m);
+            aggregators.get(m).add(BattleResult.ofOutcome(match.ppt1, match.ppt2, game % 2 == 0, outcome, runTime));
+            remaining.countDown();
+            // only the handler that records the last game finishes the match
+            if (unplayed.get(m).decrementAndGet() == 0) {
+                finish(m);
+            }
+        }
+
+        private void finish(int m) {
+            RoundRobin.Match match = matches.get(m);
+            BattleResult result = aggregators.get(m).snapshot();
+            match.battleResult = result;
+            int n = finishedMatches.incrementAndGet();
+            if (print) {
+                System.out.println("\t" + n + "/" + matches.size() + ": " + match.ppt1 + " vs. " + match.ppt2
+                        + " (" + result.p1Wins() + " - " + result.p2Wins() + ")");
+            }
+        }
+
+        /* hands the unplayed games of 'task' out again and replaces the worker if it was spawned here */
+        private void fail(int id, Task task) {
+            if (finished) return;
+            if (task != null) {
+                BitSet games = played.get(task.match);
+                synchronized (games) {
+                    // the first unplayed game is the one that was running: only it is blamed for the failure
+                    int running = games.nextClearBit(task.from);
+                    if (running < task.to) {
+                        if (task.attempt >= MAX_ATTEMPTS) {
+                            failure = new IOException("Game " + running + " of " + matches.get(task.match).ppt1
+                                    + " vs. " + matches.get(task.match).ppt2 + " failed " + MAX_ATTEMPTS + " times");
+                            return;
+                        }
+                        tasks.addFirst(new Task(nextTaskId.getAndIncrement(), task.match, running, running + 1, task.attempt + 1));
+                        for (int from = games.nextClearBit(running + 1); from < task.to; ) {
+                            int next = games.nextSetBit(from);
+                            int to = next < 0 ? task.to : Math.min(next, task.to);
+                            tasks.addFirst(new Task(nextTaskId.getAndIncrement(), task.match, from, to, 1));
+                            from = games.nextClearBit(to);
+                        }
+                    }
+                }
+            }
+            Process process = processes.remove(id);
+            if (process != null) {
+                process.destroyForcibly();
+                if (restarts.incrementAndGet() > MAX_ATTEMPTS * Math.max(1, nWorkers)) {
+                    failure = new IOException("Too many workers failed");
+                    return;
+                }
+                try {
+                    spawn();
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            synchronized (this) {
+                finished = true;
+            }
+            server.close();
+            // the handlers send STOP and close their sockets once they see 'finished'; give them a moment before
+            // cleaning up what is left
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+            for (Process process : processes.values()) {
+                try {
+                    long wait = Math.max(0, deadline - System.nanoTime());
+                    if (!process.waitFor(wait, TimeUnit.NANOSECONDS)) process.destroyForcibly();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    process.destroyForcibly();
+                }
+            }
+            synchronized (sockets) {
+                for (Socket socket : sockets) socket.close();
+            }
+        }
+    }
+}
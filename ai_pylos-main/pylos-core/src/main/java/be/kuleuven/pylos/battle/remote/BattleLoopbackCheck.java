@@ -0,0 +1,83 @@
+package be.kuleuven.pylos.battle.remote;
+
+import be.kuleuven.pylos.battle.BattleResult;
+import be.kuleuven.pylos.battle.RoundRobin;
+import be.kuleuven.pylos.player.codes.PlayerFactoryCodes;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks BattleCoordinator on one machine: plays a few matches of the CODeS players on local workers over loopback,
+ * kills one worker while they play, and checks that every game of every match was counted exactly once.
+ * <pre>
+ *     java -cp ... be.kuleuven.pylos.battle.remote.BattleLoopbackCheck [workers] [games per match]
+ * </pre>
+ * Exits with status 1 if a check fails.
+ */
+public class BattleLoopbackCheck {
+
+    /* the worker is killed once it has been playing this long */
+    private static final long KILL_AFTER_MILLIS = 2000;
+    private static volatile boolean killed;
+
+    public static void main(String[] args) throws InterruptedException {
+        int nWorkers = args.length > 0 ? Integer.parseInt(args[0]) : 2;
+        int nRuns = args.length > 1 ? Integer.parseInt(args[1]) : 400;
+
+        PlayerFactoryCodes pFactory = new PlayerFactoryCodes();
+        List<RoundRobin.Match> matches = new ArrayList<>();
+        matches.add(new RoundRobin.Match(pFactory.getType("CODeS - Best Fit"), pFactory.getType("CODeS - Level 2")));
+        matches.add(new RoundRobin.Match(pFactory.getType("CODeS - Random Fit"), pFactory.getType("CODeS - Best Fit")));
+        matches.add(new RoundRobin.Match(pFactory.getType("CODeS - Level 1"), pFactory.getType("CODeS - Level 2")));
+
+        Thread killer = new Thread(BattleLoopbackCheck::killWorker, "BattleLoopbackCheck-kill");
+        killer.setDaemon(true);
+        killer.start();
+
+        long start = System.currentTimeMillis();
+        new BattleCoordinator(PlayerFactoryCodes.class, nWorkers).play(matches, nRuns, true);
+        killer.interrupt();
+
+        List<String> errors = new ArrayList<>();
+        for (RoundRobin.Match match : matches) {
+            BattleResult result = match.battleResult;
+            if (result == null) {
+                errors.add(match.ppt1 + " vs. " + match.ppt2 + " has no result");
+                continue;
+            }
+            int p1Starts = result.p1StartP1Wins + result.p1StartDraws + result.p1StartP2Wins;
+            int p2Starts = result.p2StartP1Wins + result.p2StartDraws + result.p2StartP2Wins;
+            if (p1Starts != nRuns / 2 || p2Starts != nRuns / 2) {
+                errors.add(match.ppt1 + " vs. " + match.ppt2 + " counted " + p1Starts + " + " + p2Starts
+                        + " games, expected " + nRuns / 2 + " + " + nRuns / 2);
+            }
+        }
+        System.out.println("Played " + matches.size() * nRuns + " games on " + nWorkers + " workers in "
+                + (System.currentTimeMillis() - start) + " ms" + (killed ? ", one worker was killed" : ""));
+        if (!errors.isEmpty()) {
+            errors.forEach(System.err::println);
+            System.exit(1);
+        }
+        System.out.println("OK");
+    }
+
+    /* kills the first worker JVM once it has run for KILL_AFTER_MILLIS, so its games have to be handed out again */
+    private static void killWorker() {
+        try {
+            while (true) {
+                ProcessHandle worker = ProcessHandle.current().children().findFirst().orElse(null);
+                long age = worker == null ? 0 : worker.info().startInstant()
+                        .map(t -> System.currentTimeMillis() - t.toEpochMilli()).orElse(0L);
+                if (age >= KILL_AFTER_MILLIS) {
+                    System.out.println("Killing worker " + worker.pid());
+                    killed = worker.destroyForcibly();
+                    return;
+                }
+                Thread.sleep(50);
+            }
+        } catch (InterruptedException e) {
+            // the battle finished first
+        }
+    }
+}
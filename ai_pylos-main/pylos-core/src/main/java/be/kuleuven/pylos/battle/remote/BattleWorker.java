@@ -0,0 +1,89 @@
+package be.kuleuven.pylos.battle.remote;
+
+import be.kuleuven.pylos.battle.Battle;
+import be.kuleuven.pylos.battle.BattleResult;
+import be.kuleuven.pylos.battle.PlayerPool;
+import be.kuleuven.pylos.player.PylosPlayer;
+import be.kuleuven.pylos.player.PylosPlayerFactory;
+import be.kuleuven.pylos.player.PylosPlayerType;
+
+import java.io.*;
+import java.net.ConnectException;
+import java.net.Socket;
+import java.util.Random;
+
+import static be.kuleuven.pylos.battle.remote.Protocol.*;
+
+/**
+ * Plays the games a BattleCoordinator hands out, in its own JVM. Usually spawned by the coordinator; to add a worker
+ * by hand (e.g. on another machine) run it with the coordinator's address, on a classpath that has the players:
+ * <pre>
+ *     java -cp ... be.kuleuven.pylos.battle.remote.BattleWorker host port
+ * </pre>
+ */
+public class BattleWorker {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: BattleWorker host port [id]");
+            System.exit(1);
+        }
+        int id = args.length > 2 ? Integer.parseInt(args[2]) : -1;
+        try (Socket socket = new Socket(args[0], Integer.parseInt(args[1]))) {
+            socket.setTcpNoDelay(true);
+            run(new DataInputStream(new BufferedInputStream(socket.getInputStream())),
+                    new DataOutputStream(new BufferedOutputStream(socket.getOutputStream())), id);
+        } catch (ConnectException e) {
+            // e.g. a replacement worker that started just after the coordinator finished
+            System.err.println("No coordinator at " + args[0] + ":" + args[1]);
+            System.exit(1);
+        }
+    }
+
+    private static void run(DataInputStream in, DataOutputStream out, int id) throws Exception {
+        out.writeInt(MAGIC);
+        out.writeInt(id);
+        out.flush();
+
+        PylosPlayerFactory factory = (PylosPlayerFactory) Class.forName(in.readUTF()).getConstructor().newInstance();
+        Random random = new Random();
+        while (true) {
+            byte message = in.readByte();
+            if (message == STOP) return;
+            if (message != TASK) throw new IOException("Unexpected message " + message);
+
+            int task = in.readInt();
+            PylosPlayerType ppt1 = type(factory, in.readUTF());
+            PylosPlayerType ppt2 = type(factory, in.readUTF());
+            int from = in.readInt();
+            int to = in.readInt();
+
+            PylosPlayer p1 = PlayerPool.acquire(ppt1);
+            PylosPlayer p2 = PlayerPool.acquire(ppt2);
+            try {
+                for (int game = from; game < to; game++) {
+                    BattleResult result = Battle.playGame(ppt1, ppt2, p1, p2, game % 2 == 0, random);
+                    out.writeByte(GAME);
+                    out.writeInt(task);
+                    out.writeInt(game);
+                    out.writeByte(result.outcome());
+                    out.writeLong(result.runTime);
+                    // every game is also the heartbeat the coordinator waits for
+                    out.flush();
+                }
+            } finally {
+                PlayerPool.release(ppt1, p1);
+                PlayerPool.release(ppt2, p2);
+            }
+            out.writeByte(DONE);
+            out.writeInt(task);
+            out.flush();
+        }
+    }
+
+    private static PylosPlayerType type(PylosPlayerFactory factory, String name) throws IOException {
+        PylosPlayerType type = factory.getType(name);
+        if (type == null) throw new IOException("No player type '" + name + "' in " + factory.getName());
+        return type;
+    }
+}
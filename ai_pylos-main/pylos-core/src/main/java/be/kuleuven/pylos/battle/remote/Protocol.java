@@ -0,0 +1,27 @@
+package be.kuleuven.pylos.battle.remote;
+
+/**
+ * Messages between BattleCoordinator and BattleWorker, over a socket with DataInput/DataOutputStream:
+ * <pre>
+ *     worker:      int MAGIC, int worker id (-1 if not spawned by the coordinator)
+ *     coordinator: UTF class name of the PylosPlayerFactory
+ *     coordinator: TASK, int task id, UTF p1 type, UTF p2 type, int first game, int end game (exclusive)
+ *     worker:      GAME, int task id, int game, byte BattleResult.outcome(), long run time (ms)
+ *                  ... one per game of the task, as soon as it finishes, then DONE, int task id
+ *     coordinator: STOP
+ * </pre>
+ * Games with an even index are started by p1. A crashed game is a forfeit of the player that crashed, as in
+ * Battle.playGame(..).
+ */
+final class Protocol {
+
+    static final int MAGIC = 0x50594C57;    // "PYLW"
+
+    static final byte TASK = 1;
+    static final byte GAME = 2;
+    static final byte DONE = 3;
+    static final byte STOP = 4;
+
+    private Protocol() {
+    }
+}
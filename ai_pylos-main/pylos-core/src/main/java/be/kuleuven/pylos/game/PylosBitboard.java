@@ -0,0 +1,169 @@
+package be.kuleuven.pylos.game;
+
+/**
+ * Static helpers to answer mobility questions straight from a board state (PylosBoard.toLong()).
+ * <p>
+ * Locations are numbered 0..29 in the order of PylosBoard.getLocations() (z, then x, then y), which is
+ * also the order of the 2-bit cells in the board state. Sets of locations are 30-bit int masks.
+ * <p>
+ * Instead of calling PylosSphere.canMoveTo(..) for every (sphere, location) pair, which re-checks
+ * hasAbove(), isUsable() and isBelow() each time, compute the free spheres and usable locations once and
+ * combine them with the precomputed masks below.
+ */
+public final class PylosBitboard {
+
+    public static final int N_LOCATIONS = 30;
+    public static final int ALL_LOCATIONS = (1 << N_LOCATIONS) - 1;
+
+    /* 2-bit cells: the low bit is light, the high bit is dark */
+    private static final long LIGHT_BITS = 0x0555555555555555L;
+    private static final long DARK_BITS = LIGHT_BITS << 1;
+
+    /** level of location i */
+    public static final int[] LEVEL = new int[N_LOCATIONS];
+    /** [z] locations on level z */
+    public static final int[] LEVEL_MASK = new int[4];
+    /** [z] locations on a level higher than z */
+    public static final int[] HIGHER_LEVELS_MASK = new int[4];
+    /** [i] the 4 locations supporting location i (0 on level 0) */
+    public static final int[] BELOW_MASK = new int[N_LOCATIONS];
+    /** [i] the locations directly supported by location i */
+    public static final int[] ABOVE_MASK = new int[N_LOCATIONS];
+    /** [i] all locations except the ones directly supported by location i: a sphere can't move on top of itself */
+    public static final int[] NOT_BELOW_MASK = new int[N_LOCATIONS];
+
+    static {
+        for (int z = 0; z < 4; z++) {
+            for (int x = 0; x < 4 - z; x++) {
+                for (int y = 0; y < 4 - z; y++) {
+                    int i = indexOf(x, y, z);
+                    LEVEL[i] = z;
+                    LEVEL_MASK[z] |= 1 << i;
+                    if (z > 0) {
+                        BELOW_MASK[i] = 1 << indexOf(x, y, z - 1) | 1 << indexOf(x + 1, y, z - 1)
+                                | 1 << indexOf(x, y + 1, z - 1) | 1 << indexOf(x + 1, y + 1, z - 1);
+                    }
+                }
+            }
+        }
+        for (int z = 2; z >= 0; z--) HIGHER_LEVELS_MASK[z] = HIGHER_LEVELS_MASK[z + 1] | LEVEL_MASK[z + 1];
+        for (int i = 0; i < N_LOCATIONS; i++) {
+            for (int j = 0; j < N_LOCATIONS; j++) {
+                if ((BELOW_MASK[j] & 1 << i) != 0) ABOVE_MASK[i] |= 1 << j;
+            }
+            NOT_BELOW_MASK[i] = ALL_LOCATIONS & ~ABOVE_MASK[i];
+        }
+    }
+
+    private PylosBitboard() {
+    }
+
+    /* location indices ------------------------------------------------------------------------------------------- */
+
+    public static int indexOf(int x, int y, int z) {
+        int index = 0;
+        for (int level = 0; level < z; level++) index += (4 - level) * (4 - level);
+        return index + x * (4 - z) + y;
+    }
+
+    public static int indexOf(PylosLocation location) {
+        return indexOf(location.X, location.Y, location.Z);
+    }
+
+    /* masks from a board state ----------------------------------------------------------------------------------- */
+
+    /**
+     * returns the locations holding a sphere of 'color'
+     *
+     * @param state
+     * @param color
+     * @return
+     */
+    public static int spheres(long state, PylosPlayerColor color) {
+        return color == PylosPlayerColor.LIGHT ? (int) Long.compress(state, LIGHT_BITS) : (int) Long.compress(state, DARK_BITS);
+    }
+
+    /**
+     * returns the locations holding a sphere
+     *
+     * @param state
+     * @return
+     */
+    public static int occupied(long state) {
+        return (int) Long.compress(state | state >>> 1, LIGHT_BITS);
+    }
+
+    /**
+     * returns the occupied locations that have at least one sphere above them
+     *
+     * @param occupied
+     * @return
+     */
+    public static int covered(int occupied) {
+        int covered = 0;
+        for (int upper = occupied & HIGHER_LEVELS_MASK[0]; upper != 0; upper &= upper - 1) {
+            covered |= BELOW_MASK[Integer.numberOfTrailingZeros(upper)];
+        }
+        return covered;
+    }
+
+    /**
+     * returns the spheres of 'color' that can be moved or removed (no spheres above them)
+     *
+     * @param state
+     * @param color
+     * @return
+     */
+    public static int free(long state, PylosPlayerColor color) {
+        return spheres(state, color) & ~covered(occupied(state));
+    }
+
+    /**
+     * returns the empty locations a sphere can be put on: on level 0, or with all 4 supports occupied
+     *
+     * @param occupied
+     * @return
+     */
+    public static int usable(int occupied) {
+        int usable = LEVEL_MASK[0] & ~occupied;
+        for (int upper = HIGHER_LEVELS_MASK[0] & ~occupied; upper != 0; upper &= upper - 1) {
+            int i = Integer.numberOfTrailingZeros(upper);
+            if ((BELOW_MASK[i] & ~occupied) == 0) usable |= 1 << i;
+        }
+        return usable;
+    }
+
+    /**
+     * returns the locations a free sphere at location 'index' can be lifted to
+     *
+     * @param index
+     * @param usable
+     * @return
+     */
+    public static int liftTargets(int index, int usable) {
+        return usable & HIGHER_LEVELS_MASK[LEVEL[index]] & NOT_BELOW_MASK[index];
+    }
+
+    /**
+     * returns the number of (sphere, location) lifts available to 'color', reserve placements excluded;
+     * equal to counting PylosSphere.canMoveTo(..) over all used spheres of 'color' and all locations
+     *
+     * @param state
+     * @param color
+     * @return
+     */
+    public static int mobility(long state, PylosPlayerColor color) {
+        int occupied = occupied(state);
+        int usable = usable(occupied);
+        int free = spheres(state, color) & ~covered(occupied);
+        int mobility = 0;
+        for (int z = 0; z < 3; z++) {
+            mobility += Integer.bitCount(free & LEVEL_MASK[z]) * Integer.bitCount(usable & HIGHER_LEVELS_MASK[z]);
+        }
+        /* minus the usable locations right on top of a free sphere */
+        for (int upper = usable & HIGHER_LEVELS_MASK[0]; upper != 0; upper &= upper - 1) {
+            mobility -= Integer.bitCount(BELOW_MASK[Integer.numberOfTrailingZeros(upper)] & free);
+        }
+        return mobility;
+    }
+}
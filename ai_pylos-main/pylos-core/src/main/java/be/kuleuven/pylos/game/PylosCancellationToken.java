@@ -0,0 +1,82 @@
+package be.kuleuven.pylos.game;
+
+/**
+ * Tells a searching player to stop thinking and play its best move so far: either because the game was
+ * aborted (cancel()) or because the time for the current move is up (setDeadline(..)).
+ * <p>
+ * PylosGame owns one token per game, players get it through PylosGameIF.getCancellationToken(). Checking it
+ * costs a volatile read and a System.nanoTime(), so a search should only poll every POLL_INTERVAL nodes:
+ * <pre>
+ *     if ((++nodes &amp; PylosCancellationToken.POLL_MASK) == 0 &amp;&amp; token.isStopRequested()) stopped = true;
+ * </pre>
+ * A player that sees isStopRequested() still has to make a valid move, PylosGame ignores it after an abort.
+ */
+public class PylosCancellationToken {
+
+    /** a token that never asks to stop */
+    public static final PylosCancellationToken NONE = new PylosCancellationToken() {
+        @Override
+        public void cancel() {
+            throw new UnsupportedOperationException("PylosCancellationToken.NONE can not be cancelled");
+        }
+
+        @Override
+        public void setDeadline(long nanos) {
+            throw new UnsupportedOperationException("PylosCancellationToken.NONE has no deadline");
+        }
+    };
+
+    public static final int POLL_INTERVAL = 1024;
+    public static final int POLL_MASK = POLL_INTERVAL - 1;
+
+    private static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    private volatile boolean cancelled = false;
+    private volatile long deadline = NO_DEADLINE;    // System.nanoTime() based
+
+    /**
+     * asks the player that is thinking to stop, and every player after it; can not be undone
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * asks to stop once 'nanos' nanoseconds have passed from now
+     *
+     * @param nanos
+     */
+    public void setDeadline(long nanos) {
+        long now = System.nanoTime();
+        deadline = nanos >= NO_DEADLINE - now ? NO_DEADLINE : now + nanos;
+    }
+
+    public void clearDeadline() {
+        deadline = NO_DEADLINE;
+    }
+
+    /**
+     * returns the nanoseconds left until the deadline (negative if it passed), Long.MAX_VALUE without a deadline
+     *
+     * @return
+     */
+    public long getRemainingNanos() {
+        long deadline = this.deadline;
+        return deadline == NO_DEADLINE ? Long.MAX_VALUE : deadline - System.nanoTime();
+    }
+
+    /**
+     * returns true if the search should stop: cancelled or past the deadline
+     *
+     * @return
+     */
+    public boolean isStopRequested() {
+        if (cancelled) return true;
+        long deadline = this.deadline;
+        return deadline != NO_DEADLINE && System.nanoTime() - deadline >= 0;
+    }
+}
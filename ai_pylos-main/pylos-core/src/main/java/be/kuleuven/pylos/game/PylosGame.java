@@ -3,6 +3,8 @@ package be.kuleuven.pylos.game;
 import be.kuleuven.pylos.player.PylosPlayer;
 import be.kuleuven.pylos.player.PylosPlayerObserver;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -15,6 +17,10 @@ public class PylosGame implements PylosGameIF {
 
     private static final int MAX_BOARD_STATE_COUNT = 3;
 
+    // CPU time of the player calls, reported to the player observer (wall time where the JVM can't measure it)
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final boolean CPU_TIME = THREADS.isCurrentThreadCpuTimeSupported() && THREADS.isThreadCpuTimeEnabled();
+
     public static final boolean ADVANCED_GAME_MODE = false; //if true, horizontal and vertical lines of 4 also act as squares
 
     private final PylosBoard board;
@@ -28,7 +34,9 @@ public class PylosGame implements PylosGameIF {
     private PylosGameState currentState;
     private PylosPlayer winner = null;
     private int nReservesOfWinner = -1;
-    private boolean abortFlag = false;
+    private volatile boolean abortFlag = false;    // abort() may come from another thread (GameWatchdog)
+    private final PylosCancellationToken cancellationToken = new PylosCancellationToken();
+    private long moveTimeLimitNanos = 0;    // 0 = no limit
 
     private List<Long> boardHistory;
 
@@ -69,8 +77,25 @@ public class PylosGame implements PylosGameIF {
         }
     }
 
+    /**
+     * aborts the game after the current step; a searching player is asked to stop through the cancellation token
+     */
     public void abort() {
         abortFlag = true;
+        cancellationToken.cancel();
+    }
+
+    /**
+     * sets the time a player gets for each call of doMove/doRemove/doRemoveOrPass, 0 for no limit;
+     * players that poll the cancellation token play their best move so far when the time is up
+     *
+     * @param millis
+     */
+    public void setMoveTimeLimit(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Move time limit should be >= 0, got " + millis);
+        }
+        moveTimeLimitNanos = millis * 1_000_000L;
     }
 
     /* player interface ------------------------------------------------------------------------------------------- */
@@ -173,6 +198,11 @@ public class PylosGame implements PylosGameIF {
         return isDrawState(board.toLong());
     }
 
+    @Override
+    public PylosCancellationToken getCancellationToken() {
+        return cancellationToken;
+    }
+
     @Override
     public PylosPlayer getWinner() {
         return winner;
@@ -192,26 +222,35 @@ public class PylosGame implements PylosGameIF {
 
     private void doStep() throws PylosGameCrashedException {
         PylosPlayer cPlayer = currentPlayer;
+        long boardState = board.toLong();
+        long start;
+        if (moveTimeLimitNanos > 0) cancellationToken.setDeadline(moveTimeLimitNanos);
         try {
             switch (currentState) {
                 case MOVE:
                     gameObserver.aboutToCall(PylosGameState.MOVE, currentPlayer);
                     gameObserver.println(currentPlayer + ": add/move");
+                    start = cpuTime();
                     currentPlayer.doMove(this, board);
+                    playerObserver.moveTime(cPlayer, boardState, cpuTime() - start);
                     gameObserver.callPerformed();
                     assert isFinished() || cPlayer != currentPlayer || currentState == PylosGameState.REMOVE_FIRST : "Player " + cPlayer + " did not perform an add or move";
                     break;
                 case REMOVE_FIRST:
                     gameObserver.aboutToCall(PylosGameState.REMOVE_FIRST, currentPlayer);
                     gameObserver.println(currentPlayer + ": remove 1st");
+                    start = cpuTime();
                     currentPlayer.doRemove(this, board);
+                    playerObserver.moveTime(cPlayer, boardState, cpuTime() - start);
                     gameObserver.callPerformed();
                     assert isFinished() || currentState == PylosGameState.REMOVE_SECOND : "Player " + cPlayer + " did not removeSphere a sphere";
                     break;
                 case REMOVE_SECOND:
                     gameObserver.aboutToCall(PylosGameState.REMOVE_SECOND, currentPlayer);
                     gameObserver.println(currentPlayer + ": remove 2nd");
+                    start = cpuTime();
                     currentPlayer.doRemoveOrPass(this, board);
+                    playerObserver.moveTime(cPlayer, boardState, cpuTime() - start);
                     gameObserver.callPerformed();
                     assert isFinished() || currentPlayer != cPlayer : "Player " + cPlayer + " did not removeSphere a sphere nor passed";
                     break;
@@ -230,6 +269,10 @@ public class PylosGame implements PylosGameIF {
         }
     }
 
+    private static long cpuTime() {
+        return CPU_TIME ? THREADS.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+
     private void switchPlayer() {
         currentPlayer = currentPlayer == playerLight ? playerDark : playerLight;
     }
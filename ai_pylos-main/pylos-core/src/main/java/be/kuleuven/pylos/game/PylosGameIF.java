@@ -86,4 +86,15 @@ public interface PylosGameIF {
      */
     boolean passIsDraw();
 
+    /**
+     * returns the token a searching player should poll to stop early (abort or time limit) and play its best
+     * move so far
+     *
+     * @return
+     * @see PylosCancellationToken
+     */
+    default PylosCancellationToken getCancellationToken() {
+        return PylosCancellationToken.NONE;
+    }
+
 }
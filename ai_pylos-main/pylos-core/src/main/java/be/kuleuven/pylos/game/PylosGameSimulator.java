@@ -76,6 +76,22 @@ public class PylosGameSimulator {
         }
     }
 
+    /**
+     * removes one or two spheres (or one sphere and passes) in one step: REMOVE_FIRST -> MOVE of the other color
+     *
+     * @param removal
+     */
+    public void removeSpheres(PylosRemoval removal) {
+        assert currentState == PylosGameState.REMOVE_FIRST : "Method not supported in this state (" + currentState + ")";
+        assert removal.first.getLocation() == removal.firstLocation : removal + " was generated for another position";
+        removeSphere(removal.first);
+        if (removal.second != null) {
+            removeSphere(removal.second);
+        } else {
+            pass();
+        }
+    }
+
     /* undo */
 
     public void pass() {
@@ -108,6 +124,16 @@ public class PylosGameSimulator {
         reset(prevState, prevColor);
     }
 
+    public void undoRemoveSpheres(PylosRemoval removal, PylosGameState prevState, PylosPlayerColor prevColor) {
+        assert currentState == PylosGameState.MOVE;
+        if (removal.second != null) {
+            undoRemoveSecondSphere(removal.second, removal.secondLocation, PylosGameState.REMOVE_SECOND, prevColor);
+        } else {
+            undoPass(PylosGameState.REMOVE_SECOND, prevColor);
+        }
+        undoRemoveFirstSphere(removal.first, removal.firstLocation, prevState, prevColor);
+    }
+
     /* privates --------------------------------------------------------------------------------------------------- */
 
     public void undoPass(PylosGameState prevState, PylosPlayerColor prevColor) {
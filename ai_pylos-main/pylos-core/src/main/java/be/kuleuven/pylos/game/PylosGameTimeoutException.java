@@ -0,0 +1,30 @@
+package be.kuleuven.pylos.game;
+
+import be.kuleuven.pylos.player.PylosPlayer;
+
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A game that was stopped because a player went over its time for a move or for the game. Like a crash, it is a
+ * forfeit of currentPlayer.
+ */
+public class PylosGameTimeoutException extends PylosGameCrashedException {
+
+    private final boolean abandoned;
+
+    /**
+     * @param currentPlayer the player that went over its time
+     * @param opponentPlayer
+     * @param message
+     * @param abandoned     true if currentPlayer didn't return after it was asked to stop, so its thread was left
+     *                      behind and both players may still be in use by it
+     */
+    public PylosGameTimeoutException(PylosPlayer currentPlayer, PylosPlayer opponentPlayer, String message, boolean abandoned) {
+        super(currentPlayer, opponentPlayer, new TimeoutException(message));
+        this.abandoned = abandoned;
+    }
+
+    public boolean isAbandoned() {
+        return abandoned;
+    }
+}
@@ -0,0 +1,71 @@
+package be.kuleuven.pylos.game;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A complete removal turn after a square was completed: remove 'first', then remove 'second' or pass.
+ * <p>
+ * Removing A then B and removing B then A end in the same position, so generate(..) lists every
+ * unordered set of 1 or 2 spheres once. The order is only fixed when B is covered by A alone and thus
+ * only becomes free after A was removed.
+ * <p>
+ * Apply with PylosGameSimulator.removeSpheres(..) and undo with PylosGameSimulator.undoRemoveSpheres(..).
+ */
+public final class PylosRemoval {
+
+    public final PylosSphere first;
+    public final PylosSphere second;    // null = pass after removing 'first'
+    final PylosLocation firstLocation;
+    final PylosLocation secondLocation;
+
+    private PylosRemoval(PylosSphere first, PylosSphere second) {
+        this.first = first;
+        this.second = second;
+        this.firstLocation = first.getLocation();
+        this.secondLocation = second == null ? null : second.getLocation();
+    }
+
+    /**
+     * returns all removal sets of 'color' on 'board', to be used in REMOVE_FIRST state
+     *
+     * @param board
+     * @param color
+     * @return
+     */
+    public static List<PylosRemoval> generate(PylosBoard board, PylosPlayerColor color) {
+        PylosLocation[] locations = board.getLocations();
+        long state = board.toLong();
+        int occupied = PylosBitboard.occupied(state);
+        int spheres = PylosBitboard.spheres(state, color);
+        int free = spheres & ~PylosBitboard.covered(occupied);
+
+        List<PylosRemoval> removals = new ArrayList<>();
+        for (int f = free; f != 0; f &= f - 1) {
+            int a = Integer.numberOfTrailingZeros(f);
+            PylosSphere first = locations[a].getSphere();
+            removals.add(new PylosRemoval(first, null));
+
+            /* free before and after removing 'first': any order, only list it with the lowest index first */
+            for (int g = free & -(2 << a); g != 0; g &= g - 1) {
+                removals.add(new PylosRemoval(first, locations[Integer.numberOfTrailingZeros(g)].getSphere()));
+            }
+
+            /* only freed by removing 'first': 'first' has to go first */
+            int occupiedAfter = occupied & ~(1 << a);
+            int freed = spheres & ~PylosBitboard.covered(occupiedAfter) & ~free;
+            for (int g = freed; g != 0; g &= g - 1) {
+                removals.add(new PylosRemoval(first, locations[Integer.numberOfTrailingZeros(g)].getSphere()));
+            }
+        }
+        return removals;
+    }
+
+    public int size() {
+        return second == null ? 1 : 2;
+    }
+
+    public String toString() {
+        return "PylosRemoval[first=" + first + ", second=" + (second == null ? "pass" : second) + "]";
+    }
+}
@@ -0,0 +1,159 @@
+package be.kuleuven.pylos.game;
+
+/**
+ * The 8 symmetries of the board (rotations and mirrors of the square base), applied to board states
+ * (PylosBoard.toLong()) and location indices (PylosBitboard.indexOf(..)).
+ * <p>
+ * Transform t is the location order of PylosBoard's symmetrics[t]: cell i of the transformed state is
+ * the cell at symmetrics[t][i] of the original state. Transform 0 is the identity.
+ * <p>
+ * A board that maps onto itself under a transform has pairs of moves leading to mirrored positions with
+ * the same value. stabiliser(..) returns those transforms as a bit mask, isCanonical(..) keeps one move
+ * of every such group. The empty board has all 8 transforms, so only 3 of its 16 placements remain.
+ */
+public final class PylosSymmetry {
+
+    public static final int N_TRANSFORMS = 8;
+    /** stabiliser of a board without symmetry: only transform 0 */
+    public static final int IDENTITY = 1;
+
+    /* SOURCE[t][i] = location that moves to location i under transform t, TARGET[t][j] = where location j moves to */
+    private static final int[][] SOURCE = new int[N_TRANSFORMS][PylosBitboard.N_LOCATIONS];
+    private static final int[][] TARGET = new int[N_TRANSFORMS][PylosBitboard.N_LOCATIONS];
+
+    static {
+        for (int t = 0; t < N_TRANSFORMS; t++) {
+            for (int z = 0; z < 4; z++) {
+                int m = 3 - z;
+                for (int a = 0; a <= m; a++) {
+                    for (int b = 0; b <= m; b++) {
+                        /* (a, b) are the outer and inner loop counters of PylosBoard's symmetrics[t] */
+                        int x, y;
+                        switch (t) {
+                            case 0 -> { x = a; y = b; }
+                            case 1 -> { x = b; y = a; }
+                            case 2 -> { x = m - a; y = b; }
+                            case 3 -> { x = m - b; y = a; }
+                            case 4 -> { x = m - a; y = m - b; }
+                            case 5 -> { x = m - b; y = m - a; }
+                            case 6 -> { x = a; y = m - b; }
+                            default -> { x = b; y = m - a; }
+                        }
+                        int i = PylosBitboard.indexOf(a, b, z);
+                        int source = PylosBitboard.indexOf(x, y, z);
+                        SOURCE[t][i] = source;
+                        TARGET[t][source] = i;
+                    }
+                }
+            }
+        }
+    }
+
+    private PylosSymmetry() {
+    }
+
+    /**
+     * returns 'state' with transform t applied to its locations
+     *
+     * @param state
+     * @param t
+     * @return
+     */
+    public static long transform(long state, int t) {
+        if (t == 0) return state;
+        int[] source = SOURCE[t];
+        long transformed = 0;
+        for (int i = 0; i < PylosBitboard.N_LOCATIONS; i++) {
+            transformed |= (state >>> 2 * source[i] & 3) << 2 * i;
+        }
+        return transformed;
+    }
+
+    /**
+     * returns the transform that gives the lowest state of all 8 orientations of 'state' (the lowest t on a tie);
+     * mirrored board states share the same canonical state
+     *
+     * @param state
+     * @return
+     */
+    public static int canonicalTransform(long state) {
+        int best = 0;
+        long lowest = state;
+        for (int t = 1; t < N_TRANSFORMS; t++) {
+            long transformed = transform(state, t);
+            if (transformed < lowest) {
+                lowest = transformed;
+                best = t;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * returns the lowest state of all 8 orientations of 'state'
+     *
+     * @param state
+     * @return
+     */
+    public static long canonical(long state) {
+        return transform(state, canonicalTransform(state));
+    }
+
+    /**
+     * returns the index of the location that location 'index' is moved to by transform t
+     *
+     * @param index
+     * @param t
+     * @return
+     */
+    public static int transformIndex(int index, int t) {
+        return TARGET[t][index];
+    }
+
+    /**
+     * returns the transforms that leave 'state' unchanged as a bit mask (bit t set = transform t),
+     * always including the identity
+     *
+     * @param state
+     * @return
+     */
+    public static int stabiliser(long state) {
+        int stabiliser = IDENTITY;
+        for (int t = 1; t < N_TRANSFORMS; t++) {
+            if (isInvariant(state, SOURCE[t])) stabiliser |= 1 << t;
+        }
+        return stabiliser;
+    }
+
+    /**
+     * returns true if the move (from, to) is the representative of its group of mirrored moves on a board
+     * with the given stabiliser: the move with the lowest (to, from) among its images.
+     * Use from = -1 for a reserve sphere.
+     *
+     * @param stabiliser
+     * @param from
+     * @param to
+     * @return
+     */
+    public static boolean isCanonical(int stabiliser, int from, int to) {
+        int key = moveKey(from, to);
+        for (int s = stabiliser & ~IDENTITY; s != 0; s &= s - 1) {
+            int[] target = TARGET[Integer.numberOfTrailingZeros(s)];
+            if (moveKey(from < 0 ? -1 : target[from], target[to]) < key) return false;
+        }
+        return true;
+    }
+
+    /* internals -------------------------------------------------------------------------------------------------- */
+
+    private static boolean isInvariant(long state, int[] source) {
+        for (int i = 0; i < PylosBitboard.N_LOCATIONS; i++) {
+            if ((state >>> 2 * i & 3) != (state >>> 2 * source[i] & 3)) return false;
+        }
+        return true;
+    }
+
+    private static int moveKey(int from, int to) {
+        return to * (PylosBitboard.N_LOCATIONS + 1) + from + 1;
+    }
+}
@@ -23,6 +23,14 @@ public abstract class PylosPlayer {
         this.RANDOM = random;
     }
 
+    /**
+     * called when a battle is done with this player and keeps it for a later game (see PlayerPool), instead of
+     * creating a new instance. Clear what belongs to the last game here; state that is valid in any game
+     * (transposition tables, buffers) can be kept. Does nothing by default.
+     */
+    public void resetForReuse() {
+    }
+
     public abstract void doMove(PylosGameIF game, PylosBoard board);
 
     public abstract void doRemove(PylosGameIF game, PylosBoard board);
@@ -84,4 +84,24 @@ public interface PylosPlayerObserver {
 
     void checkingPass();
 
+    /**
+     * called by a searching player at the end of every search iteration; does nothing unless overridden
+     *
+     * @param player
+     * @param info
+     */
+    default void searchInfo(PylosPlayer player, PylosSearchInfo info) {
+    }
+
+    /**
+     * called by the game after every doMove/doRemove/doRemoveOrPass with the CPU time the player's thread spent in
+     * it (wall time if the JVM can't measure thread CPU time); does nothing unless overridden
+     *
+     * @param player
+     * @param boardState the board state (PylosBoard.toLong()) the player was called on
+     * @param cpuNanos
+     */
+    default void moveTime(PylosPlayer player, long boardState, long cpuNanos) {
+    }
+
 }
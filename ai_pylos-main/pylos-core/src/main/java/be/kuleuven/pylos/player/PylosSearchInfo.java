@@ -0,0 +1,73 @@
+package be.kuleuven.pylos.player;
+
+/**
+ * Statistics of one search iteration of a player, sent through PylosPlayerObserver.searchInfo(..) when the
+ * iteration ends. All counters cover this iteration only; 'last' marks the final iteration of a move.
+ */
+public final class PylosSearchInfo {
+
+    /** depth (plies) of this iteration */
+    public final int depth;
+    /** positions visited */
+    public final long nodes;
+    /** wall time of this iteration */
+    public final long nanos;
+    /** transposition table lookups, lookups with a matching entry, stores, and stores that replaced another position */
+    public final long ttProbes;
+    public final long ttHits;
+    public final long ttStores;
+    public final long ttCollisions;
+    /** beta cutoffs, and beta cutoffs by the first move tried */
+    public final long cutoffs;
+    public final long firstMoveCutoffs;
+    /** true if this was the last iteration for the current move */
+    public final boolean last;
+
+    public PylosSearchInfo(int depth, long nodes, long nanos, long ttProbes, long ttHits, long ttStores,
+                           long ttCollisions, long cutoffs, long firstMoveCutoffs, boolean last) {
+        this.depth = depth;
+        this.nodes = nodes;
+        this.nanos = nanos;
+        this.ttProbes = ttProbes;
+        this.ttHits = ttHits;
+        this.ttStores = ttStores;
+        this.ttCollisions = ttCollisions;
+        this.cutoffs = cutoffs;
+        this.firstMoveCutoffs = firstMoveCutoffs;
+        this.last = last;
+    }
+
+    public double getNodesPerSecond() {
+        return nanos == 0 ? 0 : nodes * 1e9 / nanos;
+    }
+
+    public double getTtHitRate() {
+        return ttProbes == 0 ? 0 : (double) ttHits / ttProbes;
+    }
+
+    /**
+     * returns the fraction of beta cutoffs caused by the first move, a measure of move ordering quality
+     *
+     * @return
+     */
+    public double getFirstMoveCutoffRate() {
+        return cutoffs == 0 ? 0 : (double) firstMoveCutoffs / cutoffs;
+    }
+
+    /**
+     * returns nodes^(1/depth): the branching factor of a uniform tree of the same size and depth
+     *
+     * @return
+     */
+    public double getEffectiveBranchingFactor() {
+        return depth == 0 || nodes == 0 ? 0 : Math.pow(nodes, 1.0 / depth);
+    }
+
+    public String toString() {
+        return "PylosSearchInfo[depth=" + depth + ", nodes=" + nodes + ", ms=" + String.format("%.1f", nanos / 1e6)
+                + ", nps=" + String.format("%.0f", getNodesPerSecond())
+                + ", ttHitRate=" + String.format("%.3f", getTtHitRate()) + ", ttStores=" + ttStores
+                + ", ttCollisions=" + ttCollisions + ", firstMoveCutoffRate=" + String.format("%.3f", getFirstMoveCutoffRate())
+                + ", ebf=" + String.format("%.2f", getEffectiveBranchingFactor()) + (last ? ", last" : "") + "]";
+    }
+}
@@ -2,6 +2,7 @@ package be.kuleuven.pylos.player.codes;
 
 import be.kuleuven.pylos.game.*;
 import be.kuleuven.pylos.player.PylosPlayer;
+import be.kuleuven.pylos.player.PylosSearchInfo;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -37,6 +38,9 @@ public class PylosPlayerMiniMax extends PylosPlayer {
     private final int VAR_BRANCH_START_DEPTH;       // set to 7 for best fit, 11 for human
     private final boolean USE_RANDOM = true;
     private final boolean SAVE_STATES = true;
+    private final boolean USE_SYMMETRY = false;          // off: it changes the random pick among equal moves, and
+                                                         // battles against the reference player should still compare
+    private final boolean FOLD_SYMMETRIC_STATES = true;  // mirrored states share one saved result
     private boolean PRUNE_ENABLE = true;
     private int MAX_BRANCH_DEPTH = 4;                    // set to 5 for human, set to 3 for best fit, 10 is possible
     private PylosGameSimulator simulator;
@@ -50,6 +54,16 @@ public class PylosPlayerMiniMax extends PylosPlayer {
 
     private HashMap<Long, Double> minimaxResults;
 
+    /* stop early when the game asks for it, the results of an interrupted branch are not used */
+    private PylosCancellationToken cancellationToken;
+    private long nodes;
+    private boolean stopped;
+
+    /* search statistics of the current move, sent to the observer when the move is chosen */
+    private long startTime;
+    private long savedProbes, savedHits, savedStores;
+    private long cutoffs, firstMoveCutoffs;
+
     public PylosPlayerMiniMax() {
         VAR_BRANCH_DEPTH = true;
         VAR_BRANCH_START_DEPTH = 10;
@@ -66,12 +80,15 @@ public class PylosPlayerMiniMax extends PylosPlayer {
     public void doMove(PylosGameIF game, PylosBoard board) {
 
         if (PRUNE_TEST) PRUNE_ENABLE = false;
-        init(game.getState(), board);
+        init(game, board);
 
         PylosSphere myReserveSphere = board.getReserve(this);
         PylosSphere[] mySpheres = board.getSpheres(this);
         PylosLocation[] locations = board.getLocations();
 
+        /* skip moves that mirror an other move on a symmetric board, they have the same minimax value */
+        int symmetry = USE_SYMMETRY ? PylosSymmetry.stabiliser(board.toLong()) : PylosSymmetry.IDENTITY;
+
         /* shuffle */
         ArrayList<PylosLocation> locationsList = new ArrayList(Arrays.asList(locations));
         if (USE_RANDOM) Collections.shuffle(locationsList, getRandom());
@@ -92,7 +109,7 @@ public class PylosPlayerMiniMax extends PylosPlayer {
             if (!sphere.isReserve()) {
                 for (int locationId = 0; locationId < locations.length; locationId++) {
                     PylosLocation location = locations[locationId];
-                    if (sphere.canMoveTo(location)) {
+                    if (sphere.canMoveTo(location) && isCanonical(symmetry, sphere, location)) {
                         PylosLocation prevLocation = sphere.getLocation();
                         getObserver().checkingMoveSphere(sphere, location);
                         simulator.moveSphere(sphere, location);
@@ -107,7 +124,7 @@ public class PylosPlayerMiniMax extends PylosPlayer {
         /* try to add a reserve sphere */
         for (int locationId = 0; locationId < locations.length; locationId++) {
             PylosLocation location = locations[locationId];
-            if (location.isUsable()) {
+            if (location.isUsable() && isCanonical(symmetry, myReserveSphere, location)) {
                 getObserver().checkingMoveSphere(myReserveSphere, location);
                 simulator.moveSphere(myReserveSphere, location);
                 double minimax = branchStep(bestMinimax, bestMinimax);
@@ -124,7 +141,7 @@ public class PylosPlayerMiniMax extends PylosPlayer {
 
         if (PRUNE_TEST) {
             PRUNE_ENABLE = true;
-            init(game.getState(), board);
+            init(game, board);
 
             /* try to move a sphere to higher level */
             for (int sphereId = 0; sphereId < mySpheres.length; sphereId++) {
@@ -132,7 +149,7 @@ public class PylosPlayerMiniMax extends PylosPlayer {
                 if (!sphere.isReserve()) {
                     for (int locationId = 0; locationId < locations.length; locationId++) {
                         PylosLocation location = locations[locationId];
-                        if (sphere.canMoveTo(location)) {
+                        if (sphere.canMoveTo(location) && isCanonical(symmetry, sphere, location)) {
                             PylosLocation prevLocation = sphere.getLocation();
                             simulator.moveSphere(sphere, location);
                             double minimax = branchStep(bestMinimax, bestMinimax);
@@ -146,7 +163,7 @@ public class PylosPlayerMiniMax extends PylosPlayer {
             /* try to add a reserve sphere */
             for (int locationId = 0; locationId < locations.length; locationId++) {
                 PylosLocation location = locations[locationId];
-                if (location.isUsable()) {
+                if (location.isUsable() && isCanonical(symmetry, myReserveSphere, location)) {
                     simulator.moveSphere(myReserveSphere, location);
                     double minimax = branchStep(bestMinimax, bestMinimax);
                     eval(minimax, myReserveSphere, location);
@@ -166,12 +183,13 @@ public class PylosPlayerMiniMax extends PylosPlayer {
         /* execute the best move */
         assert bestSphere != null;
         if (PRINT_MINIMAX_RESULT) System.out.println("-------> " + bestMinimax);
+        sendSearchInfo();
         game.moveSphere(bestSphere, bestLocation);
     }
 
     @Override
     public void doRemove(PylosGameIF game, PylosBoard board) {
-        init(game.getState(), board);
+        init(game, board);
 
         for (PylosSphere sphere : board.getSpheres(PLAYER_COLOR)) {
             if (sphere.canRemove()) {
@@ -187,12 +205,13 @@ public class PylosPlayerMiniMax extends PylosPlayer {
         shoutIfWinnerIsKnown();
         /* execute the best move */
         if (PRINT_MINIMAX_RESULT) System.out.println("-------> " + bestMinimax);
+        sendSearchInfo();
         game.removeSphere(bestSphere);
     }
 
     @Override
     public void doRemoveOrPass(PylosGameIF game, PylosBoard board) {
-        init(game.getState(), board);
+        init(game, board);
 
         for (PylosSphere sphere : board.getSpheres(PLAYER_COLOR)) {
             if (sphere.canRemove()) {
@@ -215,6 +234,7 @@ public class PylosPlayerMiniMax extends PylosPlayer {
         if (PRINT_MINIMAX_RESULT) System.out.println("-------> " + bestMinimax);
 
         /* execute the best move */
+        sendSearchInfo();
         if (bestSphere != null) {
             game.removeSphere(bestSphere);
         } else {
@@ -222,8 +242,14 @@ public class PylosPlayerMiniMax extends PylosPlayer {
         }
     }
 
-    private void init(PylosGameState state, PylosBoard board) {
-        this.simulator = new PylosGameSimulator(state, PLAYER_COLOR, board);
+    private void init(PylosGameIF game, PylosBoard board) {
+        this.simulator = new PylosGameSimulator(game.getState(), PLAYER_COLOR, board);
+        this.cancellationToken = game.getCancellationToken();
+        this.nodes = 0;
+        this.stopped = false;
+        this.startTime = System.nanoTime();
+        this.savedProbes = savedHits = savedStores = 0;
+        this.cutoffs = firstMoveCutoffs = 0;
         this.board = board;
         this.bestMinimax = INITIAL_THIS;
         this.bestSphere = null;
@@ -233,6 +259,23 @@ public class PylosPlayerMiniMax extends PylosPlayer {
         setBranchDepth();
     }
 
+    private boolean isCanonical(int symmetry, PylosSphere sphere, PylosLocation location) {
+        int from = sphere.isReserve() ? -1 : PylosBitboard.indexOf(sphere.getLocation());
+        return PylosSymmetry.isCanonical(symmetry, from, PylosBitboard.indexOf(location));
+    }
+
+    private boolean cutoff(int tried) {
+        cutoffs++;
+        if (tried == 1) firstMoveCutoffs++;
+        return true;
+    }
+
+    private void sendSearchInfo() {
+        /* saved results live in a HashMap: no collisions */
+        getObserver().searchInfo(this, new PylosSearchInfo(MAX_BRANCH_DEPTH, nodes, System.nanoTime() - startTime,
+                savedProbes, savedHits, savedStores, 0, cutoffs, firstMoveCutoffs, true));
+    }
+
     private void setBranchDepth() {
         if (VAR_BRANCH_DEPTH) {
             MAX_BRANCH_DEPTH = VAR_BRANCH_START_DEPTH + board.getNumberOfSpheresOnBoard() / 3;
@@ -241,6 +284,8 @@ public class PylosPlayerMiniMax extends PylosPlayer {
     }
 
     private void eval(double minimax, PylosSphere sphere, PylosLocation location) {
+        /* an interrupted search only counts if there is nothing better to play */
+        if (stopped && bestSphere != null) return;
         if (PRINT_MINIMAX_RESULT) System.out.println(minimax + "  best: " + bestMinimax);
         if (minimax > bestMinimax) {
             bestMinimax = minimax;
@@ -276,6 +321,7 @@ public class PylosPlayerMiniMax extends PylosPlayer {
         final PylosPlayerColor currentColor = simulator.getColor();
         double minimax = currentColor == PLAYER_COLOR ? INITIAL_THIS : INITIAL_OTHER;
         boolean prune = false;
+        int tried = 0;
 
         PylosSphere myReserveSphere = board.getReserve(currentColor);
         PylosSphere[] mySpheres = board.getSpheres(currentColor);
@@ -291,13 +337,14 @@ public class PylosPlayerMiniMax extends PylosPlayer {
                         // check chance
                         PylosLocation prevLocation = sphere.getLocation();
                         simulator.moveSphere(sphere, location);
+                        tried++;
                         double result = branchStep(minimax, siblingMinimax);
                         if (currentColor == PLAYER_COLOR) {
                             if (result > minimax) minimax = result;
-                            if (minimax >= siblingMinimax) prune = true;
+                            if (minimax >= siblingMinimax) prune = cutoff(tried);
                         } else {
                             if (result < minimax) minimax = result;
-                            if (minimax <= siblingMinimax) prune = true;
+                            if (minimax <= siblingMinimax) prune = cutoff(tried);
                         }
                         simulator.undoMoveSphere(sphere, prevLocation, PylosGameState.MOVE, currentColor);
                         assert simulator.getState() == PylosGameState.MOVE && simulator.getColor() == currentColor : simulator.getState() + " " + simulator.getColor() + "\tshould be: " + PylosGameState.MOVE + " " + currentColor;
@@ -312,13 +359,14 @@ public class PylosPlayerMiniMax extends PylosPlayer {
             if (location.isUsable()) {
                 // check chance
                 simulator.moveSphere(myReserveSphere, location);
+                tried++;
                 double result = branchStep(minimax, siblingMinimax);
                 if (currentColor == PLAYER_COLOR) {
                     if (result > minimax) minimax = result;
-                    if (minimax >= siblingMinimax) prune = true;
+                    if (minimax >= siblingMinimax) prune = cutoff(tried);
                 } else {
                     if (result < minimax) minimax = result;
-                    if (minimax <= siblingMinimax) prune = true;
+                    if (minimax <= siblingMinimax) prune = cutoff(tried);
                 }
                 simulator.undoAddSphere(myReserveSphere, PylosGameState.MOVE, currentColor);
                 assert simulator.getState() == PylosGameState.MOVE && simulator.getColor() == currentColor : simulator.getState() + " " + simulator.getColor() + "\tshould be: " + PylosGameState.MOVE + " " + currentColor;
@@ -336,6 +384,7 @@ public class PylosPlayerMiniMax extends PylosPlayer {
         final PylosPlayerColor currentColor = simulator.getColor();
         double minimax = currentColor == PLAYER_COLOR ? INITIAL_THIS : INITIAL_OTHER;
         boolean prune = false;
+        int tried = 0;
 
         PylosSphere[] mySpheres = board.getSpheres(currentColor);
 
@@ -345,13 +394,14 @@ public class PylosPlayerMiniMax extends PylosPlayer {
             if (sphere.canRemove()) {
                 PylosLocation prevLocation = sphere.getLocation();
                 simulator.removeSphere(sphere);
+                tried++;
                 double result = branchStep(parentSiblingMinimax, parentSiblingMinimax);
                 if (currentColor == PLAYER_COLOR) {
                     if (result > minimax) minimax = result;
-                    if (minimax >= parentSiblingMinimax) prune = true;
+                    if (minimax >= parentSiblingMinimax) prune = cutoff(tried);
                 } else {
                     if (result < minimax) minimax = result;
-                    if (minimax <= parentSiblingMinimax) prune = true;
+                    if (minimax <= parentSiblingMinimax) prune = cutoff(tried);
                 }
                 simulator.undoRemoveFirstSphere(sphere, prevLocation, PylosGameState.REMOVE_FIRST, currentColor);
                 assert simulator.getState() == PylosGameState.REMOVE_FIRST && simulator.getColor() == currentColor : simulator.getState() + " " + simulator.getColor() + "\tshould be: " + PylosGameState.REMOVE_FIRST + " " + currentColor;
@@ -393,6 +443,7 @@ public class PylosPlayerMiniMax extends PylosPlayer {
         final PylosPlayerColor currentColor = simulator.getColor();
         double minimax = currentColor == PLAYER_COLOR ? INITIAL_THIS : INITIAL_OTHER;
         boolean prune = false;
+        int tried = 0;
 
         PylosSphere[] mySpheres = board.getSpheres(currentColor);
 
@@ -402,13 +453,14 @@ public class PylosPlayerMiniMax extends PylosPlayer {
             if (sphere.canRemove()) {
                 PylosLocation prevLocation = sphere.getLocation();
                 simulator.removeSphere(sphere);
+                tried++;
                 double result = branchStep(minimax, minimax);
                 if (currentColor == PLAYER_COLOR) {
                     if (result > minimax) minimax = result;
-                    if (minimax >= parentSiblingMinimax) prune = true;
+                    if (minimax >= parentSiblingMinimax) prune = cutoff(tried);
                 } else {
                     if (result < minimax) minimax = result;
-                    if (minimax <= parentSiblingMinimax) prune = true;
+                    if (minimax <= parentSiblingMinimax) prune = cutoff(tried);
                 }
                 simulator.undoRemoveSecondSphere(sphere, prevLocation, PylosGameState.REMOVE_SECOND, currentColor);
                 assert simulator.getState() == PylosGameState.REMOVE_SECOND && simulator.getColor() == currentColor : simulator.getState() + " " + simulator.getColor() + "\tshould be: " + PylosGameState.REMOVE_SECOND + " " + currentColor;
@@ -458,18 +510,24 @@ public class PylosPlayerMiniMax extends PylosPlayer {
 
     private double branchStep(double siblingMinimax, double parentSiblingMinimax) {
 
-        if (branchDepth == MAX_BRANCH_DEPTH) {
+        if ((++nodes & PylosCancellationToken.POLL_MASK) == 0 && cancellationToken.isStopRequested()) {
+            stopped = true;
+        }
+        if (branchDepth == MAX_BRANCH_DEPTH || stopped) {
             return board.getReservesSize(PLAYER_COLOR) - board.getReservesSize(PLAYER_COLOR.other());
         }
 
         final PylosPlayerColor color = simulator.getColor();
         final PylosGameState state = simulator.getState();
-        final Long minimaxBranchState = addGameState(board.toLong(), state, color);
+        final long boardState = FOLD_SYMMETRIC_STATES ? PylosSymmetry.canonical(board.toLong()) : board.toLong();
+        final Long minimaxBranchState = addGameState(boardState, state, color);
 
         Double result;
         if (SAVE_STATES) {
+            savedProbes++;
             result = minimaxResults.get(minimaxBranchState);
             if (result != null) {
+                savedHits++;
                 return result;
             }
         }
@@ -505,7 +563,8 @@ public class PylosPlayerMiniMax extends PylosPlayer {
                 throw new IllegalStateException("Game state is: " + state);
         }
 
-        if (SAVE_STATES) {
+        if (SAVE_STATES && !stopped) {
+            savedStores++;
             minimaxResults.put(minimaxBranchState, result);
         }
 
@@ -0,0 +1,409 @@
+package be.kuleuven.pylos.search;
+
+import be.kuleuven.pylos.game.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Ranks the actions of a position: returns the k best root actions, each with its score and principal variation.
+ * <p>
+ * The first line is found with iterative deepening. Each next line searches the root again with the actions found
+ * so far excluded. All searches share one transposition table, so the lines after the first are mostly table
+ * hits and do not start from scratch. The table is kept between calls of analyze(..), use clear() to drop it.
+ * <p>
+ * Not thread-safe: use one analyzer per thread. analyze(..) searches on the board it is given, and the board is
+ * back in its original state when analyze(..) returns.
+ */
+public class PylosAnalyzer {
+
+    /**
+     * Static evaluation of a position, from the point of view of 'color'
+     */
+    public interface Evaluator {
+        double evaluate(PylosBoard board, PylosPlayerColor color);
+    }
+
+    /** reserves of 'color' minus reserves of the other color, the evaluation of PylosPlayerMiniMax */
+    public static final Evaluator RESERVE_DIFFERENCE =
+            (board, color) -> board.getReservesSize(color) - board.getReservesSize(color.other());
+
+    /** score of a won position, minus the number of plies it takes to get there */
+    public static final double WIN = 10000;
+    /* scores at least this far from 0 are wins or losses, with the plies to get there */
+    private static final double WIN_BOUND = WIN / 2;
+
+    private static final double INF = Double.POSITIVE_INFINITY;
+    private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+    private static final byte EXACT = 0, LOWER = 1, UPPER = 2;
+
+    private final int depth;
+    private final Evaluator evaluator;
+
+    /* transposition table, slots store ~key so the all-zero initial arrays never match */
+    private final long[] ttKeys;
+    private final long[] ttValues;
+    private final int[] ttDepths;
+    private final int[] ttActions;    // Action.code of the best action, 0 = none
+    private final byte[] ttFlags;
+    private final int ttShift;
+
+    private PylosBoard board;
+    private PylosGameSimulator simulator;
+    private long nodes;
+    private double rootScore;
+
+    /**
+     * creates an analyzer that searches 'depth' plies with RESERVE_DIFFERENCE and a 2^20 slot table
+     *
+     * @param depth
+     */
+    public PylosAnalyzer(int depth) {
+        this(depth, RESERVE_DIFFERENCE, 20);
+    }
+
+    /**
+     * creates an analyzer that searches 'depth' plies with a transposition table of 2^ttBits slots
+     * (25 bytes per slot)
+     *
+     * @param depth
+     * @param evaluator
+     * @param ttBits
+     */
+    public PylosAnalyzer(int depth, Evaluator evaluator, int ttBits) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("depth should be at least 1, got " + depth);
+        }
+        if (ttBits < 1 || ttBits > 28) {
+            throw new IllegalArgumentException("ttBits should be in [1, 28], got " + ttBits);
+        }
+        this.depth = depth;
+        this.evaluator = evaluator;
+        ttKeys = new long[1 << ttBits];
+        ttValues = new long[1 << ttBits];
+        ttDepths = new int[1 << ttBits];
+        ttActions = new int[1 << ttBits];
+        ttFlags = new byte[1 << ttBits];
+        ttShift = 64 - ttBits;
+    }
+
+    /* public methods --------------------------------------------------------------------------------------------- */
+
+    /**
+     * returns the (at most) k best actions of 'color' in 'state' on 'board', best first
+     *
+     * @param board
+     * @param state MOVE, REMOVE_FIRST or REMOVE_SECOND
+     * @param color the color to play
+     * @param k
+     * @return
+     */
+    public List<Line> analyze(PylosBoard board, PylosGameState state, PylosPlayerColor color, int k) {
+        if (state != PylosGameState.MOVE && state != PylosGameState.REMOVE_FIRST && state != PylosGameState.REMOVE_SECOND) {
+            throw new IllegalArgumentException("Nothing to analyze in state " + state);
+        }
+        this.board = board;
+        this.simulator = new PylosGameSimulator(state, color, board);
+        this.nodes = 0;
+
+        List<Line> lines = new ArrayList<>();
+        List<Action> excluded = new ArrayList<>();
+        try {
+            while (lines.size() < k) {
+                Action best = null;
+                /* iterative deepening for the first line only, later lines find the table filled */
+                for (int d = lines.isEmpty() ? 1 : depth; d <= depth; d++) {
+                    best = searchRoot(d, excluded, best);
+                    if (best == null) break;
+                }
+                if (best == null) break;
+                excluded.add(best);
+                lines.add(new Line(rootScore, principalVariation(best)));
+            }
+        } finally {
+            this.board = null;
+            this.simulator = null;
+        }
+        return lines;
+    }
+
+    /**
+     * returns the number of positions visited by the last analyze(..)
+     *
+     * @return
+     */
+    public long getNodeCount() {
+        return nodes;
+    }
+
+    public void clear() {
+        Arrays.fill(ttKeys, 0);
+    }
+
+    /* search ----------------------------------------------------------------------------------------------------- */
+
+    /* returns the best action that is not in 'excluded' (null if there is none) and sets rootScore */
+    private Action searchRoot(int depth, List<Action> excluded, Action previousBest) {
+        List<Action> actions = generate();
+        actions.removeIf(a -> excluded.stream().anyMatch(e -> e.code == a.code));
+        if (actions.isEmpty()) return null;
+        if (previousBest != null) orderFirst(actions, previousBest.code);
+
+        Action best = null;
+        double alpha = -INF;
+        for (Action action : actions) {
+            double value = child(action, depth - 1, alpha, INF, 1);
+            if (best == null || value > alpha) {
+                alpha = value;
+                best = action;
+            }
+        }
+        rootScore = alpha;
+        return best;
+    }
+
+    private double search(int depth, double alpha, double beta, int ply) {
+        nodes++;
+        PylosGameState state = simulator.getState();
+        if (state == PylosGameState.COMPLETED) {
+            return simulator.getWinner() == simulator.getColor() ? WIN - ply : ply - WIN;
+        }
+        if (depth <= 0) return evaluator.evaluate(board, simulator.getColor());
+
+        long key = key();
+        int slot = slot(key);
+        int ttAction = 0;
+        if (ttKeys[slot] == ~key) {
+            double value = fromTable(Double.longBitsToDouble(ttValues[slot]), ply);
+            byte flag = ttFlags[slot];
+            if (ttDepths[slot] >= depth
+                    && (flag == EXACT || flag == LOWER && value >= beta || flag == UPPER && value <= alpha)) {
+                return value;
+            }
+            ttAction = ttActions[slot];
+        }
+
+        List<Action> actions = generate();
+        orderFirst(actions, ttAction);
+
+        double alphaOrig = alpha;
+        double best = -INF;
+        Action bestAction = null;
+        for (Action action : actions) {
+            double value = child(action, depth - 1, alpha, beta, ply + 1);
+            if (value > best) {
+                best = value;
+                bestAction = action;
+            }
+            if (value > alpha) alpha = value;
+            if (alpha >= beta) break;
+        }
+
+        ttKeys[slot] = ~key;
+        ttValues[slot] = Double.doubleToRawLongBits(toTable(best, ply));
+        ttDepths[slot] = depth;
+        ttActions[slot] = bestAction == null ? 0 : bestAction.code;
+        ttFlags[slot] = best <= alphaOrig ? UPPER : best >= beta ? LOWER : EXACT;
+        return best;
+    }
+
+    /*
+     * the table keeps wins and losses as plies from the node instead of from the root, so a position that is reached
+     * again at another ply (a transposition) gets the right distance back
+     */
+    private static double toTable(double value, int ply) {
+        return value >= WIN_BOUND ? value + ply : value <= -WIN_BOUND ? value - ply : value;
+    }
+
+    private static double fromTable(double value, int ply) {
+        return value >= WIN_BOUND ? value - ply : value <= -WIN_BOUND ? value + ply : value;
+    }
+
+    /* plays 'action', searches the result from the point of view of the side that played it, and undoes 'action' */
+    private double child(Action action, int depth, double alpha, double beta, int ply) {
+        PylosGameState prevState = simulator.getState();
+        PylosPlayerColor prevColor = simulator.getColor();
+        play(action);
+        double value;
+        if (simulator.getColor() == prevColor) {
+            /* a completed square or the first removal: the same side plays again */
+            value = search(depth, alpha, beta, ply);
+        } else {
+            value = -search(depth, -beta, -alpha, ply);
+        }
+        undo(action, prevState, prevColor);
+        return value;
+    }
+
+    private List<Action> principalVariation(Action rootAction) {
+        List<Action> pv = new ArrayList<>();
+        List<PylosGameState> prevStates = new ArrayList<>();
+        List<PylosPlayerColor> prevColors = new ArrayList<>();
+
+        Action action = rootAction;
+        while (action != null && pv.size() < depth) {
+            pv.add(action);
+            prevStates.add(simulator.getState());
+            prevColors.add(simulator.getColor());
+            play(action);
+
+            action = null;
+            if (simulator.getState() != PylosGameState.COMPLETED) {
+                int code = ttAction(key());
+                for (Action a : generate()) if (a.code == code) action = a;
+            }
+        }
+        for (int i = pv.size() - 1; i >= 0; i--) {
+            undo(pv.get(i), prevStates.get(i), prevColors.get(i));
+        }
+        return pv;
+    }
+
+    /* actions ---------------------------------------------------------------------------------------------------- */
+
+    private List<Action> generate() {
+        List<Action> actions = new ArrayList<>();
+        PylosPlayerColor color = simulator.getColor();
+        PylosLocation[] locations = board.getLocations();
+        long state = board.toLong();
+        int occupied = PylosBitboard.occupied(state);
+        int free = PylosBitboard.spheres(state, color) & ~PylosBitboard.covered(occupied);
+
+        if (simulator.getState() == PylosGameState.MOVE) {
+            int usable = PylosBitboard.usable(occupied);
+            /* lifts first, they save a reserve */
+            for (int f = free; f != 0; f &= f - 1) {
+                int from = Integer.numberOfTrailingZeros(f);
+                for (int t = PylosBitboard.liftTargets(from, usable); t != 0; t &= t - 1) {
+                    actions.add(new Action(locations[from].getSphere(), locations[Integer.numberOfTrailingZeros(t)]));
+                }
+            }
+            PylosSphere reserve = board.getReserve(color);
+            if (reserve != null) {
+                for (int u = usable; u != 0; u &= u - 1) {
+                    actions.add(new Action(reserve, locations[Integer.numberOfTrailingZeros(u)]));
+                }
+            }
+        } else {
+            for (int f = free; f != 0; f &= f - 1) actions.add(new Action(locations[Integer.numberOfTrailingZeros(f)].getSphere(), null));
+            if (simulator.getState() == PylosGameState.REMOVE_SECOND) actions.add(new Action(null, null));
+        }
+        return actions;
+    }
+
+    private void play(Action action) {
+        if (action.location != null) simulator.moveSphere(action.sphere, action.location);
+        else if (action.sphere != null) simulator.removeSphere(action.sphere);
+        else simulator.pass();
+    }
+
+    private void undo(Action action, PylosGameState prevState, PylosPlayerColor prevColor) {
+        if (action.location != null) {
+            if (action.from == null) simulator.undoAddSphere(action.sphere, prevState, prevColor);
+            else simulator.undoMoveSphere(action.sphere, action.from, prevState, prevColor);
+        } else if (action.sphere != null) {
+            if (prevState == PylosGameState.REMOVE_FIRST) simulator.undoRemoveFirstSphere(action.sphere, action.from, prevState, prevColor);
+            else simulator.undoRemoveSecondSphere(action.sphere, action.from, prevState, prevColor);
+        } else {
+            simulator.undoPass(prevState, prevColor);
+        }
+    }
+
+    private long key() {
+        long key = board.toLong();
+        if (simulator.getColor() == PylosPlayerColor.DARK) key |= 1L << 60;
+        return key | (long) simulator.getState().ordinal() << 61;
+    }
+
+    private int slot(long key) {
+        return (int) ((key * HASH_MULTIPLIER) >>> ttShift);
+    }
+
+    private int ttAction(long key) {
+        int slot = slot(key);
+        return ttKeys[slot] == ~key ? ttActions[slot] : 0;
+    }
+
+    private static void orderFirst(List<Action> actions, int code) {
+        if (code == 0) return;
+        for (int i = 1; i < actions.size(); i++) {
+            if (actions.get(i).code == code) {
+                actions.add(0, actions.remove(i));
+                return;
+            }
+        }
+    }
+
+    /* results ---------------------------------------------------------------------------------------------------- */
+
+    /**
+     * One step of a player: move 'sphere' from 'from' (null for a reserve) to 'location', remove 'sphere' from
+     * 'from' (location null) or pass (all null).
+     */
+    public static final class Action {
+
+        public final PylosSphere sphere;
+        public final PylosLocation from;
+        public final PylosLocation location;
+        /* 1 + 31 * (index of 'from' + 1) + (index of 'location' + 1): equal for equal actions */
+        final int code;
+
+        Action(PylosSphere sphere, PylosLocation location) {
+            this.sphere = sphere;
+            this.from = sphere == null || sphere.isReserve() ? null : sphere.getLocation();
+            this.location = location;
+            int fromIndex = from == null ? 0 : PylosBitboard.indexOf(from) + 1;
+            int toIndex = location == null ? 0 : PylosBitboard.indexOf(location) + 1;
+            this.code = 1 + 31 * fromIndex + toIndex;
+        }
+
+        public boolean isPass() {
+            return sphere == null;
+        }
+
+        public boolean isRemove() {
+            return sphere != null && location == null;
+        }
+
+        /**
+         * plays this action in 'game', e.g. from PylosPlayer.doMove(..)
+         *
+         * @param game
+         */
+        public void play(PylosGameIF game) {
+            if (location != null) game.moveSphere(sphere, location);
+            else if (sphere != null) game.removeSphere(sphere);
+            else game.pass();
+        }
+
+        public String toString() {
+            if (isPass()) return "pass";
+            if (isRemove()) return "remove " + from.toStringCoords();
+            return (from == null ? "reserve" : from.toStringCoords()) + " -> " + location.toStringCoords();
+        }
+    }
+
+    /**
+     * A ranked root action: its score from the point of view of the color to play and the expected line
+     * starting with it (the root action is pv.get(0)).
+     */
+    public static final class Line {
+
+        public final double score;
+        public final List<Action> pv;
+
+        Line(double score, List<Action> pv) {
+            this.score = score;
+            this.pv = pv;
+        }
+
+        public Action getAction() {
+            return pv.get(0);
+        }
+
+        public String toString() {
+            return "Line[score=" + score + ", pv=" + pv + "]";
+        }
+    }
+}
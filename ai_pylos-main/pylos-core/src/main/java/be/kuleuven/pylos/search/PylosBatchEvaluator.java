@@ -0,0 +1,114 @@
+package be.kuleuven.pylos.search;
+
+import be.kuleuven.pylos.game.PylosBitboard;
+import be.kuleuven.pylos.game.PylosPlayerColor;
+
+/**
+ * Evaluates many positions at once with the weights of a PylosPatternEvaluator: for MCTS leaf batches,
+ * labelling datasets or analysing archived games.
+ * <p>
+ * Positions are board states (PylosBoard.toLong()) with the reserves of both colors, in plain arrays. Scores are
+ * from the point of view of LIGHT and equal PylosPatternEvaluator.evaluate(board, LIGHT).
+ * <p>
+ * When the JVM runs with --add-modules jdk.incubator.vector, the positions are evaluated in SIMD lanes by
+ * PylosVectorBatchEvaluator; otherwise (or if the Vector API fails to load) a scalar loop over the bitboard
+ * helpers is used. The weights are copied when the batch evaluator is created, later changes to the pattern
+ * evaluator are not seen.
+ */
+public class PylosBatchEvaluator {
+
+    interface Kernel {
+        void evaluate(long[] states, int[] lightReserves, int[] darkReserves, double[] scores, int n);
+    }
+
+    private static final String VECTOR_KERNEL = "be.kuleuven.pylos.search.PylosVectorBatchEvaluator";
+
+    private final Kernel kernel;
+    private final boolean vectorized;
+
+    public PylosBatchEvaluator(PylosPatternEvaluator evaluator) {
+        Kernel vector = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent() ? loadVectorKernel(evaluator) : null;
+        this.vectorized = vector != null;
+        this.kernel = vector != null ? vector : new ScalarKernel(evaluator);
+    }
+
+    /**
+     * creates a batch evaluator that always uses the scalar loop
+     *
+     * @param evaluator
+     * @return
+     */
+    public static PylosBatchEvaluator scalar(PylosPatternEvaluator evaluator) {
+        return new PylosBatchEvaluator(new ScalarKernel(evaluator));
+    }
+
+    private PylosBatchEvaluator(Kernel kernel) {
+        this.kernel = kernel;
+        this.vectorized = false;
+    }
+
+    private static Kernel loadVectorKernel(PylosPatternEvaluator evaluator) {
+        try {
+            return (Kernel) Class.forName(VECTOR_KERNEL)
+                    .getDeclaredConstructor(PylosPatternEvaluator.class)
+                    .newInstance(evaluator);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * returns true if the Vector API is used
+     *
+     * @return
+     */
+    public boolean isVectorized() {
+        return vectorized;
+    }
+
+    /**
+     * evaluates the first 'n' positions into 'scores'
+     *
+     * @param states        board states
+     * @param lightReserves reserves of LIGHT per position
+     * @param darkReserves  reserves of DARK per position
+     * @param scores        receives the score of each position, from the point of view of LIGHT
+     * @param n             number of positions
+     */
+    public void evaluate(long[] states, int[] lightReserves, int[] darkReserves, double[] scores, int n) {
+        if (n > states.length || n > lightReserves.length || n > darkReserves.length || n > scores.length) {
+            throw new IllegalArgumentException("Arrays are shorter than the number of positions (" + n + ")");
+        }
+        kernel.evaluate(states, lightReserves, darkReserves, scores, n);
+    }
+
+    static final class ScalarKernel implements Kernel {
+        private final PylosPatternEvaluator evaluator;
+        private final double reserveWeight, elevationWeight, mobilityWeight;
+
+        ScalarKernel(PylosPatternEvaluator evaluator) {
+            this.evaluator = evaluator.copy();
+            this.reserveWeight = evaluator.getReserveWeight();
+            this.elevationWeight = evaluator.getElevationWeight();
+            this.mobilityWeight = evaluator.getMobilityWeight();
+        }
+
+        @Override
+        public void evaluate(long[] states, int[] lightReserves, int[] darkReserves, double[] scores, int n) {
+            evaluate(states, lightReserves, darkReserves, scores, 0, n);
+        }
+
+        /* also finishes the positions that don't fill a vector */
+        void evaluate(long[] states, int[] lightReserves, int[] darkReserves, double[] scores, int from, int to) {
+            for (int i = from; i < to; i++) {
+                long state = states[i];
+                int light = PylosBitboard.spheres(state, PylosPlayerColor.LIGHT);
+                int dark = PylosBitboard.spheres(state, PylosPlayerColor.DARK);
+                scores[i] = evaluator.patternSum(light, dark)
+                        + reserveWeight * (lightReserves[i] - darkReserves[i])
+                        + elevationWeight * (PylosPatternEvaluator.elevation(light) - PylosPatternEvaluator.elevation(dark))
+                        + mobilityWeight * (PylosBitboard.mobility(state, PylosPlayerColor.LIGHT) - PylosBitboard.mobility(state, PylosPlayerColor.DARK));
+            }
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package be.kuleuven.pylos.search;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Small, lossy, direct-mapped cache for leaf evaluations, keyed on the board state
+ * (PylosBoard.toLong(), optionally or-ed with flags in the 4 highest bits).
+ * <p>
+ * Every key maps to exactly one slot, a store simply overwrites whatever was there.
+ * Keys and values live in two primitive arrays, so a probe costs one multiply and two loads.
+ * Use {@link #concurrent(int)} when the cache is shared between threads (e.g. players in BattleMT).
+ */
+public class PylosEvalCache {
+
+    private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    /* slots store ~key, so the all-zero initial arrays never match a valid board state */
+    protected final long[] keys;
+    protected final long[] values;
+    private final int shift;
+
+    private long hits;
+    private long misses;
+
+    /**
+     * creates a cache with 2^bits slots (16 bytes per slot)
+     *
+     * @param bits
+     */
+    public PylosEvalCache(int bits) {
+        if (bits < 1 || bits > 30) {
+            throw new IllegalArgumentException("bits should be in [1, 30], got " + bits);
+        }
+        keys = new long[1 << bits];
+        values = new long[1 << bits];
+        shift = 64 - bits;
+    }
+
+    /**
+     * creates a cache with 2^bits slots which can safely be shared between threads
+     *
+     * @param bits
+     * @return
+     */
+    public static PylosEvalCache concurrent(int bits) {
+        return new Concurrent(bits);
+    }
+
+    /**
+     * returns the cached evaluation of 'key', or NaN if it is not in the cache
+     *
+     * @param key
+     * @return
+     */
+    public double get(long key) {
+        int index = index(key);
+        if (keys[index] == ~key) {
+            hits++;
+            return Double.longBitsToDouble(values[index]);
+        }
+        misses++;
+        return Double.NaN;
+    }
+
+    /**
+     * stores the evaluation of 'key', replacing the previous occupant of its slot
+     *
+     * @param key
+     * @param value
+     */
+    public void put(long key, double value) {
+        int index = index(key);
+        keys[index] = ~key;
+        values[index] = Double.doubleToRawLongBits(value);
+    }
+
+    public void clear() {
+        Arrays.fill(keys, 0);
+        Arrays.fill(values, 0);
+        resetStatistics();
+    }
+
+    public void resetStatistics() {
+        hits = 0;
+        misses = 0;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * returns hits / (hits + misses), or 0 if the cache was never probed
+     *
+     * @return
+     */
+    public double getHitRate() {
+        long h = getHits();
+        long total = h + getMisses();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    public int size() {
+        return keys.length;
+    }
+
+    public String toString() {
+        return "PylosEvalCache[size=" + size() + ", hits=" + getHits() + ", misses=" + getMisses()
+                + ", hitRate=" + String.format("%.3f", getHitRate()) + "]";
+    }
+
+    protected final int index(long key) {
+        return (int) ((key * HASH_MULTIPLIER) >>> shift);
+    }
+
+    /**
+     * Thread-safe variant: slots store (~key ^ value), a probe only hits if the key and value it read
+     * belong together, so racing or torn writes show up as a miss instead of a wrong evaluation.
+     */
+    private static final class Concurrent extends PylosEvalCache {
+
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+
+        Concurrent(int bits) {
+            super(bits);
+        }
+
+        @Override
+        public double get(long key) {
+            int index = index(key);
+            long value = values[index];
+            if ((keys[index] ^ value) == ~key) {
+                hits.increment();
+                return Double.longBitsToDouble(value);
+            }
+            misses.increment();
+            return Double.NaN;
+        }
+
+        @Override
+        public void put(long key, double value) {
+            int index = index(key);
+            long bits = Double.doubleToRawLongBits(value);
+            keys[index] = ~key ^ bits;
+            values[index] = bits;
+        }
+
+        @Override
+        public void resetStatistics() {
+            hits.reset();
+            misses.reset();
+        }
+
+        @Override
+        public long getHits() {
+            return hits.sum();
+        }
+
+        @Override
+        public long getMisses() {
+            return misses.sum();
+        }
+    }
+}
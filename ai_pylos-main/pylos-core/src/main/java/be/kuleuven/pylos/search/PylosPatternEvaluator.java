@@ -0,0 +1,354 @@
+package be.kuleuven.pylos.search;
+
+import be.kuleuven.pylos.game.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Table-driven evaluation: every square of the board (14, plus the lines of 4 in advanced game mode) is looked
+ * up in a pattern table, and three scalar features are added on top.
+ * <p>
+ * A square's pattern is the base-3 number of its 4 locations (0 = empty, 1 = own sphere, 2 = other sphere, first
+ * location = lowest digit), times 2, plus 1 if the location on top of the square is occupied. There is one table
+ * of 162 weights per level (z = 0, 1, 2) and one for the lines. The scalar features are the differences in
+ * reserves, elevation (sum of Z of the spheres on the board) and mobility (PylosBitboard.mobility(..)).
+ * <p>
+ * All values are from the point of view of the color passed to evaluate(..). The default weights give exactly
+ * the evaluation StudentPlayer uses: completed squares 14, squares with 3 own spheres and 1 empty location 7,
+ * reserves 16, elevation 1.2 and mobility 0.15.
+ * <p>
+ * Weight files are plain text, one table per line: a name followed by its weights. '#' starts a comment.
+ * <pre>
+ *     reserves 16.0
+ *     elevation 1.2
+ *     mobility 0.15
+ *     level0 w0 w1 ... w161
+ *     level1 ...
+ *     level2 ...
+ *     lines ...
+ * </pre>
+ */
+public class PylosPatternEvaluator implements PylosAnalyzer.Evaluator {
+
+    public static final int N_PATTERNS = 81 * 2;
+    /** tables: one per level that has squares, the last one for the lines */
+    public static final int N_TABLES = 4;
+    public static final int LINES_TABLE = 3;
+    private static final String[] TABLE_NAMES = {"level0", "level1", "level2", "lines"};
+
+    /* the 4 locations of each square as a mask, its table and the location above it (-1 for lines) */
+    private static final int[] SQUARE_MASK;
+    private static final int[] SQUARE_TABLE;
+    private static final int[] SQUARE_TOP;
+    /* largest elevation and mobility differences: every location above level 0, and 15 free spheres that can each be
+       lifted to at most 9 locations (all of level 1; a usable location on level 2 takes 4 of those) */
+    private static final int MAX_ELEVATION = 9 + 2 * 4 + 3;
+    private static final int MAX_MOBILITY = 15 * 9;
+    /* base-3 value of a 4-bit nibble of own spheres (the other color is the same times 2) */
+    private static final int[] NIBBLE_TO_BASE3 = new int[16];
+
+    static {
+        List<int[]> squares = new ArrayList<>();
+        for (int z = 0; z < 3; z++) {
+            for (int x = 0; x < 3 - z; x++) {
+                for (int y = 0; y < 3 - z; y++) {
+                    int mask = 1 << PylosBitboard.indexOf(x, y, z) | 1 << PylosBitboard.indexOf(x + 1, y, z)
+                            | 1 << PylosBitboard.indexOf(x, y + 1, z) | 1 << PylosBitboard.indexOf(x + 1, y + 1, z);
+                    squares.add(new int[]{mask, z, PylosBitboard.indexOf(x, y, z + 1)});
+                }
+            }
+        }
+        if (PylosGame.ADVANCED_GAME_MODE) {
+            for (int i = 0; i < 4; i++) {
+                int horizontal = 0, vertical = 0;
+                for (int j = 0; j < 4; j++) {
+                    horizontal |= 1 << PylosBitboard.indexOf(i, j, 0);
+                    vertical |= 1 << PylosBitboard.indexOf(j, i, 0);
+                }
+                squares.add(new int[]{horizontal, LINES_TABLE, -1});
+                squares.add(new int[]{vertical, LINES_TABLE, -1});
+            }
+        }
+        SQUARE_MASK = new int[squares.size()];
+        SQUARE_TABLE = new int[squares.size()];
+        SQUARE_TOP = new int[squares.size()];
+        for (int s = 0; s < squares.size(); s++) {
+            SQUARE_MASK[s] = squares.get(s)[0];
+            SQUARE_TABLE[s] = squares.get(s)[1];
+            SQUARE_TOP[s] = squares.get(s)[2];
+        }
+        for (int nibble = 0; nibble < 16; nibble++) {
+            int power = 1;
+            for (int bit = 0; bit < 4; bit++, power *= 3) {
+                if ((nibble & 1 << bit) != 0) NIBBLE_TO_BASE3[nibble] += power;
+            }
+        }
+    }
+
+    /* [table][pattern] */
+    private final double[][] tables;
+    private double reserveWeight;
+    private double elevationWeight;
+    private double mobilityWeight;
+
+    /**
+     * creates an evaluator with all weights 0
+     */
+    public PylosPatternEvaluator() {
+        this.tables = new double[N_TABLES][N_PATTERNS];
+    }
+
+    /**
+     * returns an evaluator with the default weights (the StudentPlayer evaluation)
+     *
+     * @return
+     */
+    public static PylosPatternEvaluator defaults() {
+        PylosPatternEvaluator evaluator = new PylosPatternEvaluator();
+        evaluator.reserveWeight = 16.0;
+        evaluator.elevationWeight = 1.2;
+        evaluator.mobilityWeight = 0.15;
+        for (int pattern = 0; pattern < N_PATTERNS; pattern++) {
+            int own = 0, other = 0;
+            for (int config = pattern / 2; config > 0; config /= 3) {
+                if (config % 3 == 1) own++;
+                else if (config % 3 == 2) other++;
+            }
+            double weight = 0;
+            if (own == 4) weight = 14.0;
+            else if (other == 4) weight = -14.0;
+            else if (own == 3 && other == 0) weight = 7.0;
+            else if (other == 3 && own == 0) weight = -7.0;
+            for (double[] table : evaluator.tables) table[pattern] = weight;
+        }
+        return evaluator;
+    }
+
+    public PylosPatternEvaluator copy() {
+        PylosPatternEvaluator copy = new PylosPatternEvaluator();
+        for (int t = 0; t < N_TABLES; t++) System.arraycopy(tables[t], 0, copy.tables[t], 0, N_PATTERNS);
+        copy.reserveWeight = reserveWeight;
+        copy.elevationWeight = elevationWeight;
+        copy.mobilityWeight = mobilityWeight;
+        return copy;
+    }
+
+    /* evaluation ------------------------------------------------------------------------------------------------- */
+
+    @Override
+    public double evaluate(PylosBoard board, PylosPlayerColor color) {
+        long state = board.toLong();
+        int own = PylosBitboard.spheres(state, color);
+        int other = PylosBitboard.spheres(state, color.other());
+        return patternSum(own, other)
+                + reserveWeight * (board.getReservesSize(color) - board.getReservesSize(color.other()))
+                + elevationWeight * (elevation(own) - elevation(other))
+                + mobilityWeight * (PylosBitboard.mobility(state, color) - PylosBitboard.mobility(state, color.other()));
+    }
+
+    /**
+     * returns the sum of the pattern weights of all squares, given the locations of the own and other spheres
+     *
+     * @param own
+     * @param other
+     * @return
+     */
+    public double patternSum(int own, int other) {
+        int occupied = own | other;
+        double sum = 0;
+        for (int s = 0; s < SQUARE_MASK.length; s++) {
+            sum += tables[SQUARE_TABLE[s]][pattern(s, own, other, occupied)];
+        }
+        return sum;
+    }
+
+    /**
+     * returns the pattern index of square 's' (an index in getSquareCount())
+     *
+     * @param s
+     * @param own
+     * @param other
+     * @param occupied
+     * @return
+     */
+    public static int pattern(int s, int own, int other, int occupied) {
+        int mask = SQUARE_MASK[s];
+        int config = NIBBLE_TO_BASE3[Integer.compress(own, mask)] + 2 * NIBBLE_TO_BASE3[Integer.compress(other, mask)];
+        int top = SQUARE_TOP[s];
+        return config * 2 + (top >= 0 && (occupied & 1 << top) != 0 ? 1 : 0);
+    }
+
+    /**
+     * returns the sum of Z of the locations in 'spheres'
+     *
+     * @param spheres
+     * @return
+     */
+    public static int elevation(int spheres) {
+        return Integer.bitCount(spheres & PylosBitboard.LEVEL_MASK[1])
+                + 2 * Integer.bitCount(spheres & PylosBitboard.LEVEL_MASK[2])
+                + 3 * Integer.bitCount(spheres & PylosBitboard.LEVEL_MASK[3]);
+    }
+
+    /**
+     * returns how far evaluate(..) can be from its reserve term alone, on any board: the largest absolute weight in
+     * the table of every square, plus the largest elevation and mobility differences times their weights
+     *
+     * @return
+     */
+    public double getStructuralBound() {
+        double bound = 0;
+        for (int s = 0; s < SQUARE_MASK.length; s++) {
+            double max = 0;
+            for (double weight : tables[SQUARE_TABLE[s]]) max = Math.max(max, Math.abs(weight));
+            bound += max;
+        }
+        return bound + Math.abs(elevationWeight) * MAX_ELEVATION + Math.abs(mobilityWeight) * MAX_MOBILITY;
+    }
+
+    /* weights ---------------------------------------------------------------------------------------------------- */
+
+    public static int getSquareCount() {
+        return SQUARE_MASK.length;
+    }
+
+    public static int getSquareTable(int s) {
+        return SQUARE_TABLE[s];
+    }
+
+    /**
+     * returns the 4 locations of square 's' as a mask
+     *
+     * @param s
+     * @return
+     */
+    public static int getSquareMask(int s) {
+        return SQUARE_MASK[s];
+    }
+
+    /**
+     * returns the location on top of square 's', -1 for the lines
+     *
+     * @param s
+     * @return
+     */
+    public static int getSquareTop(int s) {
+        return SQUARE_TOP[s];
+    }
+
+    public double getWeight(int table, int pattern) {
+        return tables[table][pattern];
+    }
+
+    public void setWeight(int table, int pattern, double weight) {
+        tables[table][pattern] = weight;
+    }
+
+    /* all tables in one array, [table * N_PATTERNS + pattern] */
+    double[] getFlatTables() {
+        double[] flat = new double[N_TABLES * N_PATTERNS];
+        for (int t = 0; t < N_TABLES; t++) System.arraycopy(tables[t], 0, flat, t * N_PATTERNS, N_PATTERNS);
+        return flat;
+    }
+
+    public double getReserveWeight() {
+        return reserveWeight;
+    }
+
+    public void setReserveWeight(double reserveWeight) {
+        this.reserveWeight = reserveWeight;
+    }
+
+    public double getElevationWeight() {
+        return elevationWeight;
+    }
+
+    public void setElevationWeight(double elevationWeight) {
+        this.elevationWeight = elevationWeight;
+    }
+
+    public double getMobilityWeight() {
+        return mobilityWeight;
+    }
+
+    public void setMobilityWeight(double mobilityWeight) {
+        this.mobilityWeight = mobilityWeight;
+    }
+
+    /* files ------------------------------------------------------------------------------------------------------ */
+
+    /**
+     * reads a weight file; tables that are not in the file keep weight 0
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static PylosPatternEvaluator load(Path file) throws IOException {
+        PylosPatternEvaluator evaluator = new PylosPatternEvaluator();
+        try (BufferedReader reader = Files.newBufferedReader(file)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                int comment = line.indexOf('#');
+                if (comment >= 0) line = line.substring(0, comment);
+                line = line.trim();
+                if (line.isEmpty()) continue;
+
+                String[] tokens = line.split("\\s+");
+                try {
+                    evaluator.read(tokens);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException(file + ":" + lineNumber + ": " + e.getMessage(), e);
+                }
+            }
+        }
+        return evaluator;
+    }
+
+    public void save(Path file) throws IOException {
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(file))) {
+            writer.println("# PylosPatternEvaluator weights");
+            writer.println("reserves " + reserveWeight);
+            writer.println("elevation " + elevationWeight);
+            writer.println("mobility " + mobilityWeight);
+            for (int t = 0; t < N_TABLES; t++) {
+                StringBuilder sb = new StringBuilder(TABLE_NAMES[t]);
+                for (double weight : tables[t]) sb.append(' ').append(String.format(Locale.ROOT, "%.6g", weight));
+                writer.println(sb);
+            }
+        }
+    }
+
+    private void read(String[] tokens) {
+        String name = tokens[0];
+        switch (name) {
+            case "reserves" -> reserveWeight = scalar(tokens);
+            case "elevation" -> elevationWeight = scalar(tokens);
+            case "mobility" -> mobilityWeight = scalar(tokens);
+            default -> {
+                int t = List.of(TABLE_NAMES).indexOf(name);
+                if (t < 0) throw new IllegalArgumentException("Unknown weight '" + name + "'");
+                if (tokens.length != N_PATTERNS + 1) {
+                    throw new IllegalArgumentException(name + " should have " + N_PATTERNS + " weights, got " + (tokens.length - 1));
+                }
+                for (int p = 0; p < N_PATTERNS; p++) tables[t][p] = Double.parseDouble(tokens[p + 1]);
+            }
+        }
+    }
+
+    private static double scalar(String[] tokens) {
+        if (tokens.length != 2) {
+            throw new IllegalArgumentException(tokens[0] + " should have 1 weight, got " + (tokens.length - 1));
+        }
+        return Double.parseDouble(tokens[1]);
+    }
+}
@@ -0,0 +1,187 @@
+package be.kuleuven.pylos.search;
+
+import be.kuleuven.pylos.game.PylosBitboard;
+import be.kuleuven.pylos.game.PylosPlayerColor;
+import jdk.incubator.vector.*;
+
+import java.util.Arrays;
+
+import static jdk.incubator.vector.VectorOperators.*;
+
+/**
+ * SIMD kernel of PylosBatchEvaluator: one position per lane, the same arithmetic as the scalar loop.
+ * <p>
+ * Positions are handled in blocks of struct-of-arrays: the light and dark location masks are unpacked from the board
+ * states first (Long.compress), then every square and every upper location is one vector pass over the block that reads
+ * and updates int arrays. No vector is carried from one pass to the next, which keeps C2 from boxing vectors at loop
+ * merges, and no vector is returned from a helper method: C2 stops inlining in large methods, and a vector returned
+ * from a call that isn't inlined is boxed. The table lookups and the final weighted sum are plain loops. The block
+ * arrays (about 40 KB) are kept per thread, so small batches allocate nothing and one instance can be used by several
+ * threads.
+ * <p>
+ * Only loaded (by reflection) when jdk.incubator.vector is in the boot layer.
+ */
+final class PylosVectorBatchEvaluator implements PylosBatchEvaluator.Kernel {
+
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    private static final int BLOCK = 1024;
+
+    private static final ThreadLocal<Block> BLOCKS = ThreadLocal.withInitial(Block::new);
+
+    private static final int FIRST_UPPER = Integer.numberOfTrailingZeros(PylosBitboard.HIGHER_LEVELS_MASK[0]);
+
+    /* [square][k] the k-th location of a square (its base-3 digit k), the location on top and the table offset */
+    private static final int N_SQUARES = PylosPatternEvaluator.getSquareCount();
+    private static final int[][] SQUARE_LOCATIONS = new int[N_SQUARES][4];
+    private static final int[] SQUARE_TOP = new int[N_SQUARES];
+    private static final int[] SQUARE_OFFSET = new int[N_SQUARES];
+
+    static {
+        for (int s = 0; s < N_SQUARES; s++) {
+            int k = 0;
+            for (int mask = PylosPatternEvaluator.getSquareMask(s); mask != 0; mask &= mask - 1) {
+                SQUARE_LOCATIONS[s][k++] = Integer.numberOfTrailingZeros(mask);
+            }
+            // lines have no top: bit 31 is never set, and a branch would merge two vectors (boxing them)
+            SQUARE_TOP[s] = PylosPatternEvaluator.getSquareTop(s) >= 0 ? PylosPatternEvaluator.getSquareTop(s) : 31;
+            SQUARE_OFFSET[s] = PylosPatternEvaluator.getSquareTable(s) * PylosPatternEvaluator.N_PATTERNS;
+        }
+    }
+
+    private final double[] tables;
+    private final double reserveWeight, elevationWeight, mobilityWeight;
+    private final PylosBatchEvaluator.ScalarKernel tail;
+
+    PylosVectorBatchEvaluator(PylosPatternEvaluator evaluator) {
+        this.tables = evaluator.getFlatTables();
+        this.reserveWeight = evaluator.getReserveWeight();
+        this.elevationWeight = evaluator.getElevationWeight();
+        this.mobilityWeight = evaluator.getMobilityWeight();
+        this.tail = new PylosBatchEvaluator.ScalarKernel(evaluator);
+    }
+
+    @Override
+    public void evaluate(long[] states, int[] lightReserves, int[] darkReserves, double[] scores, int n) {
+        Block b = BLOCKS.get();
+        int bound = INTS.loopBound(n);
+        for (int block = 0; block < bound; block += BLOCK) {
+            int size = Math.min(BLOCK, bound - block);
+            for (int j = 0; j < size; j++) {
+                b.light[j] = PylosBitboard.spheres(states[block + j], PylosPlayerColor.LIGHT);
+                b.dark[j] = PylosBitboard.spheres(states[block + j], PylosPlayerColor.DARK);
+            }
+            Arrays.fill(b.score, 0, size, 0.0);
+            masks(b, size);
+            for (int s = 0; s < N_SQUARES; s++) addPattern(b, size, s);
+            for (int l = FIRST_UPPER; l < PylosBitboard.N_LOCATIONS; l++) coverAndSupport(b, size, l);
+            mobility(b, size);
+            for (int l = FIRST_UPPER; l < PylosBitboard.N_LOCATIONS; l++) subtractLiftsOnTop(b, size, l);
+
+            // plain loop: C2 vectorizes it itself
+            for (int j = 0; j < size; j++) {
+                scores[block + j] = b.score[j] + reserveWeight * (lightReserves[block + j] - darkReserves[block + j])
+                        + elevationWeight * b.elevation[j] + mobilityWeight * b.mobility[j];
+            }
+        }
+        tail.evaluate(states, lightReserves, darkReserves, scores, bound, n);
+    }
+
+    /* struct-of-arrays state of one block of positions */
+    private static final class Block {
+        final int[] light = new int[BLOCK], dark = new int[BLOCK], occupied = new int[BLOCK];
+        final int[] covered = new int[BLOCK], usable = new int[BLOCK];
+        final int[] elevation = new int[BLOCK], mobility = new int[BLOCK];
+        final int[] pattern = new int[BLOCK];
+        final double[] score = new double[BLOCK];
+    }
+
+    /* adds the table weight of square 's' to the score: pattern = base-3 digits * 2 + top occupied */
+    private void addPattern(Block b, int size, int s) {
+        int offset = SQUARE_OFFSET[s], top = SQUARE_TOP[s];
+        for (int j = 0; j < size; j += INTS.length()) {
+            IntVector.fromArray(INTS, b.occupied, j).lanewise(LSHR, top).and(1).add(offset).intoArray(b.pattern, j);
+        }
+        // one pass per digit: a single pass with all 4 grows too large for C2 to keep the vectors unboxed
+        int power = 2;
+        for (int location : SQUARE_LOCATIONS[s]) {
+            addDigit(b, size, location, power);
+            power *= 3;
+        }
+        // DoubleVector's gather looks up its index species at runtime, which C2 doesn't intrinsify (JDK 21)
+        for (int j = 0; j < size; j++) b.score[j] += tables[b.pattern[j]];
+    }
+
+    /* pattern += (light + 2 * dark) * power, for one location */
+    private static void addDigit(Block b, int size, int location, int power) {
+        for (int j = 0; j < size; j += INTS.length()) {
+            IntVector light = IntVector.fromArray(INTS, b.light, j);
+            IntVector dark = IntVector.fromArray(INTS, b.dark, j);
+            IntVector.fromArray(INTS, b.pattern, j)
+                    .add(light.lanewise(LSHR, location).and(1).add(dark.lanewise(LSHR, location).and(1).mul(2)).mul(power))
+                    .intoArray(b.pattern, j);
+        }
+    }
+
+    /* occupied, elevation difference, and the start of covered and usable: nothing and the empty level 0 */
+    private static void masks(Block b, int size) {
+        for (int j = 0; j < size; j += INTS.length()) {
+            IntVector light = IntVector.fromArray(INTS, b.light, j);
+            IntVector dark = IntVector.fromArray(INTS, b.dark, j);
+            IntVector occupied = light.or(dark);
+            occupied.intoArray(b.occupied, j);
+            light.and(PylosBitboard.LEVEL_MASK[1]).lanewise(BIT_COUNT).sub(dark.and(PylosBitboard.LEVEL_MASK[1]).lanewise(BIT_COUNT))
+                    .add(light.and(PylosBitboard.LEVEL_MASK[2]).lanewise(BIT_COUNT).sub(dark.and(PylosBitboard.LEVEL_MASK[2]).lanewise(BIT_COUNT)).mul(2))
+                    .add(light.and(PylosBitboard.LEVEL_MASK[3]).lanewise(BIT_COUNT).sub(dark.and(PylosBitboard.LEVEL_MASK[3]).lanewise(BIT_COUNT)).mul(3))
+                    .intoArray(b.elevation, j);
+            IntVector.zero(INTS).intoArray(b.covered, j);
+            occupied.not().and(PylosBitboard.LEVEL_MASK[0]).intoArray(b.usable, j);
+        }
+    }
+
+    /* location 'l' covers its 4 supports if occupied, and is usable if empty with all 4 supports occupied */
+    private static void coverAndSupport(Block b, int size, int l) {
+        int below = PylosBitboard.BELOW_MASK[l];
+        for (int j = 0; j < size; j += INTS.length()) {
+            IntVector occupied = IntVector.fromArray(INTS, b.occupied, j);
+            IntVector occupiedBit = occupied.lanewise(LSHR, l).and(1);
+            IntVector.fromArray(INTS, b.covered, j).or(occupiedBit.mul(below)).intoArray(b.covered, j);
+            // (x ^ below) - 1 has its sign bit set only if x == below; arithmetic instead of lane masks, which
+            // aren't intrinsified on every CPU
+            IntVector supported = occupied.and(below).lanewise(XOR, below).sub(1).lanewise(LSHR, 31);
+            IntVector.fromArray(INTS, b.usable, j)
+                    .or(supported.and(occupiedBit.lanewise(XOR, 1)).lanewise(LSHL, l))
+                    .intoArray(b.usable, j);
+        }
+    }
+
+    /* mobility difference before the correction for lifts on top of the sphere itself, see PylosBitboard.mobility(..) */
+    private static void mobility(Block b, int size) {
+        for (int j = 0; j < size; j += INTS.length()) {
+            IntVector usable = IntVector.fromArray(INTS, b.usable, j);
+            IntVector free = IntVector.fromArray(INTS, b.covered, j).not();
+            IntVector lightFree = IntVector.fromArray(INTS, b.light, j).and(free);
+            IntVector darkFree = IntVector.fromArray(INTS, b.dark, j).and(free);
+            // free spheres per level (light - dark) times the usable locations above that level
+            IntVector free0 = lightFree.and(PylosBitboard.LEVEL_MASK[0]).lanewise(BIT_COUNT).sub(darkFree.and(PylosBitboard.LEVEL_MASK[0]).lanewise(BIT_COUNT));
+            IntVector free1 = lightFree.and(PylosBitboard.LEVEL_MASK[1]).lanewise(BIT_COUNT).sub(darkFree.and(PylosBitboard.LEVEL_MASK[1]).lanewise(BIT_COUNT));
+            IntVector free2 = lightFree.and(PylosBitboard.LEVEL_MASK[2]).lanewise(BIT_COUNT).sub(darkFree.and(PylosBitboard.LEVEL_MASK[2]).lanewise(BIT_COUNT));
+            free0.mul(usable.and(PylosBitboard.HIGHER_LEVELS_MASK[0]).lanewise(BIT_COUNT))
+                    .add(free1.mul(usable.and(PylosBitboard.HIGHER_LEVELS_MASK[1]).lanewise(BIT_COUNT)))
+                    .add(free2.mul(usable.and(PylosBitboard.HIGHER_LEVELS_MASK[2]).lanewise(BIT_COUNT)))
+                    .intoArray(b.mobility, j);
+        }
+    }
+
+    /* a free sphere can't be lifted onto the usable location 'l' right on top of it */
+    private static void subtractLiftsOnTop(Block b, int size, int l) {
+        int below = PylosBitboard.BELOW_MASK[l];
+        for (int j = 0; j < size; j += INTS.length()) {
+            IntVector free = IntVector.fromArray(INTS, b.covered, j).not().and(below);
+            IntVector difference = IntVector.fromArray(INTS, b.light, j).and(free).lanewise(BIT_COUNT)
+                    .sub(IntVector.fromArray(INTS, b.dark, j).and(free).lanewise(BIT_COUNT));
+            IntVector.fromArray(INTS, b.mobility, j)
+                    .sub(IntVector.fromArray(INTS, b.usable, j).lanewise(LSHR, l).and(1).mul(difference))
+                    .intoArray(b.mobility, j);
+        }
+    }
+}
@@ -1,45 +1,67 @@
 package be.kuleuven.pylos;
 
+import be.kuleuven.pylos.battle.BattleAggregator;
 import be.kuleuven.pylos.battle.BattleMT;
-import be.kuleuven.pylos.battle.BattleResult;
 import be.kuleuven.pylos.battle.data.PlayedGame;
+import be.kuleuven.pylos.battle.data.PlayedGameArchive;
+import be.kuleuven.pylos.battle.data.PlayedGameSink;
+import be.kuleuven.pylos.battle.data.PlayedGameWriter;
 import be.kuleuven.pylos.player.PylosPlayer;
 import be.kuleuven.pylos.player.PylosPlayerType;
 import be.kuleuven.pylos.player.codes.PylosPlayerBestFit;
 import be.kuleuven.pylos.player.codes.PylosPlayerMiniMax;
 import com.google.gson.*;
+import com.google.gson.stream.JsonWriter;
 
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.nio.file.Files;
-import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 public class PylosMLCollect {
     public static final String EXPORT_PATH = "pylos-ml/src/main/training/resources/games/0.json";
 
+    /**
+     * Usage: PylosMLCollect [output file]; a file ending in PlayedGameArchive.EXTENSION is written as a binary
+     * archive, anything else as json (what train.py reads)
+     */
     public static void main(String[] args) throws IOException {
-        // Collect games
-        List<PlayedGame> playedGames = PylosMLCollect.collectGames();
+        File file = new File(args.length > 0 ? args[0] : EXPORT_PATH);
+        Files.createDirectories(file.getAbsoluteFile().getParentFile().toPath());
 
-        System.out.println("Played games: " + playedGames.size());
+        if (file.getName().endsWith(PlayedGameArchive.EXTENSION)) {
+            try (PlayedGameWriter writer = new PlayedGameWriter(file.toPath())) {
+                PylosMLCollect.collectGames(writer);
+                System.out.println("Played games: " + writer.getCount());
+            }
+            System.out.println("Exported to: " + file);
+            return;
+        }
 
-        // Export to json file
-        File file = new File(EXPORT_PATH);
-        Files.createDirectories(file.getParentFile().toPath());
-        FileWriter writer = new FileWriter(file);
         Gson gson = new GsonBuilder().create();
+        AtomicLong nGames = new AtomicLong();
 
-        gson.toJson(playedGames, writer);
-
-        writer.flush();
-        writer.close();
+        // Collect games, each one is written to the json array as soon as it is played
+        try (JsonWriter writer = new JsonWriter(new FileWriter(file))) {
+            writer.beginArray();
+            PylosMLCollect.collectGames(game -> {
+                synchronized (writer) {
+                    gson.toJson(game, PlayedGame.class, writer);
+                }
+                nGames.incrementAndGet();
+            });
+            writer.endArray();
+        } catch (JsonIOException e) {
+            throw new IOException(e);
+        }
 
-        System.out.println("Exported to: " + EXPORT_PATH);
+        System.out.println("Played games: " + nGames.get());
+        System.out.println("Exported to: " + file);
     }
 
-    public static List<PlayedGame> collectGames() {
+    public static void collectGames(PlayedGameSink sink) {
         PylosPlayerType p1 = new PylosPlayerType("BF") {
             @Override
             public PylosPlayer create() {
@@ -53,10 +75,6 @@ public class PylosMLCollect {
             }
         };
 
-        BattleResult br = BattleMT.play(p1, p2, 100000, 8, true);
-
-        return br.playedGames;
+        BattleMT.play(new BattleAggregator(p1, p2, sink), 100000, 8, true);
     }
 }
-
-
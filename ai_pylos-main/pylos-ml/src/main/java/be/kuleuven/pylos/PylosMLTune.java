@@ -0,0 +1,379 @@
+package be.kuleuven.pylos;
+
+import be.kuleuven.pylos.battle.data.PlayedGame;
+import be.kuleuven.pylos.battle.data.PlayedGameArchive;
+import be.kuleuven.pylos.game.PylosBitboard;
+import be.kuleuven.pylos.game.PylosPlayerColor;
+import be.kuleuven.pylos.game.PylosSymmetry;
+import be.kuleuven.pylos.search.PylosPatternEvaluator;
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Texel-style tuner for the weights of PylosPatternEvaluator (the StudentPlayer evaluation).
+ * <p>
+ * Reads the PlayedGame archives written by PylosMLCollect (json, or binary PlayedGameArchive files), extracts the
+ * features of every position once into primitive arrays (pattern indices of the squares, reserve/elevation/mobility
+ * differences, game outcome) and minimises the logistic loss of sigmoid(K * eval) against the outcome with full-batch
+ * gradient descent (Adam), each pass split over all cores. K is fitted to the starting weights first, so the tuned
+ * weights stay on the same scale. The result is written as a weight file that PylosPatternEvaluator.load(..) reads,
+ * e.g. through -Dpylos.student.weights.
+ * <p>
+ * Usage: PylosMLTune [output file] [games file or directory]...
+ */
+public class PylosMLTune {
+    public static final String GAMES_PATH = "pylos-ml/src/main/training/resources/games";
+    public static final String WEIGHTS_PATH = "pylos-ml/src/main/training/resources/weights.txt";
+
+    static final int SKIP_PLIES = 4;                // the opening says little about the outcome
+    static final int VALIDATION_EVERY = 10;         // every 10th game is held out to watch for overfitting
+    static final int EPOCHS = 1000;
+    static final double LEARNING_RATE = 0.05;       // Adam step, in evaluation points
+    static final double L2 = 1e-4;                  // pulls rarely seen patterns back to their starting weight
+    static final int N_THREADS = Runtime.getRuntime().availableProcessors();
+
+    /* parameter vector: the 3 scalar weights, then the pattern tables. The reserve weight is not tuned: it is the
+       unit of StudentPlayer's futility margin, and with K fitted it only sets the scale */
+    static final int RESERVES = 0, ELEVATION = 1, MOBILITY = 2, TABLES = 3;
+    static final int N_PARAMS = TABLES + PylosPatternEvaluator.N_TABLES * PylosPatternEvaluator.N_PATTERNS;
+    /* pattern with the own and other spheres exchanged: the weights are kept antisymmetric under it */
+    static final int[] SWAP = new int[PylosPatternEvaluator.N_PATTERNS];
+
+    static {
+        for (int p = 0; p < SWAP.length; p++) {
+            int config = p / 2, swapped = 0;
+            for (int power = 1; power < 81; power *= 3, config /= 3) {
+                int digit = config % 3;
+                swapped += (digit == 0 ? 0 : 3 - digit) * power;
+            }
+            SWAP[p] = swapped * 2 + p % 2;
+        }
+    }
+
+    /* table part of the parameters (table * N_PATTERNS + pattern) -> lowest entry of its class under the 8 board
+       symmetries: a rotated or mirrored square has its locations in another order, so its pattern is another entry
+       of the same table. The weights are kept equal within a class, so the evaluation doesn't depend on orientation */
+    static final int[] ORBIT = new int[PylosPatternEvaluator.N_TABLES * PylosPatternEvaluator.N_PATTERNS];
+
+    static {
+        for (int i = 0; i < ORBIT.length; i++) ORBIT[i] = i;
+        int nSquares = PylosPatternEvaluator.getSquareCount();
+        for (int s = 0; s < nSquares; s++) {
+            int mask = PylosPatternEvaluator.getSquareMask(s);
+            int top = PylosPatternEvaluator.getSquareTop(s);
+            for (int p = 0; p < PylosPatternEvaluator.N_PATTERNS; p++) {
+                if (p % 2 == 1 && top < 0) continue;
+                // a board with pattern p on square s: digit k of the config is the k-th location of the mask
+                int own = 0, other = 0, config = p / 2;
+                for (int m = mask; m != 0; m &= m - 1, config /= 3) {
+                    if (config % 3 == 1) own |= m & -m;
+                    else if (config % 3 == 2) other |= m & -m;
+                }
+                if (p % 2 == 1) own |= 1 << top;
+                for (int t = 1; t < PylosSymmetry.N_TRANSFORMS; t++) {
+                    int tOwn = transform(own, t), tOther = transform(other, t), tMask = transform(mask, t);
+                    for (int s2 = 0; s2 < nSquares; s2++) {
+                        if (PylosPatternEvaluator.getSquareMask(s2) != tMask) continue;
+                        union(PylosPatternEvaluator.getSquareTable(s) * PylosPatternEvaluator.N_PATTERNS + p,
+                                PylosPatternEvaluator.getSquareTable(s2) * PylosPatternEvaluator.N_PATTERNS
+                                        + PylosPatternEvaluator.pattern(s2, tOwn, tOther, tOwn | tOther));
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < ORBIT.length; i++) ORBIT[i] = find(i);
+    }
+
+    private static int transform(int locations, int t) {
+        int transformed = 0;
+        for (int l = locations; l != 0; l &= l - 1) {
+            transformed |= 1 << PylosSymmetry.transformIndex(Integer.numberOfTrailingZeros(l), t);
+        }
+        return transformed;
+    }
+
+    private static int find(int i) {
+        while (ORBIT[i] != i) i = ORBIT[i] = ORBIT[ORBIT[i]];
+        return i;
+    }
+
+    private static void union(int a, int b) {
+        int ra = find(a), rb = find(b);
+        if (ra < rb) ORBIT[rb] = ra;
+        else ORBIT[ra] = rb;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException, ExecutionException {
+        Path output = Path.of(args.length > 0 ? args[0] : WEIGHTS_PATH);
+        List<Path> inputs = new ArrayList<>();
+        for (String arg : args.length > 1 ? Arrays.copyOfRange(args, 1, args.length) : new String[]{GAMES_PATH}) {
+            Path path = Path.of(arg);
+            if (Files.isDirectory(path)) {
+                try (Stream<Path> files = Files.list(path)) {
+                    inputs.addAll(files.filter(f -> f.toString().endsWith(".json") || f.toString().endsWith(PlayedGameArchive.EXTENSION)).sorted().collect(Collectors.toList()));
+                }
+            } else {
+                inputs.add(path);
+            }
+        }
+
+        long start = System.currentTimeMillis();
+        Positions training = new Positions();
+        Positions validation = new Positions();
+        int games = 0;
+        for (Path input : inputs) {
+            games += read(input, training, validation, games);
+        }
+        System.out.println("Read " + games + " games: " + training.size + " training and " + validation.size
+                + " validation positions in " + (System.currentTimeMillis() - start) + " ms");
+
+        ExecutorService pool = Executors.newFixedThreadPool(N_THREADS);
+        try {
+            double[] initial = toParams(PylosPatternEvaluator.defaults());
+            antisymmetrise(initial);
+            symmetrise(initial);
+            double k = fitK(pool, training, initial);
+            System.out.printf("K = %.5f, training loss %.6f, validation loss %.6f%n", k,
+                    loss(pool, training, initial, k, null), loss(pool, validation, initial, k, null));
+
+            double[] params = tune(pool, training, validation, initial, k);
+            toEvaluator(params).save(output);
+            System.out.println("Wrote " + output + " after " + (System.currentTimeMillis() - start) + " ms");
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /* positions ------------------------------------------------------------------------------------------------- */
+
+    /**
+     * features of all positions, from the point of view of LIGHT
+     */
+    static class Positions {
+        final int nSquares = PylosPatternEvaluator.getSquareCount();
+        int size;
+        short[] patterns = new short[0];    // [position * nSquares + square]: table * N_PATTERNS + pattern
+        byte[] reserves = new byte[0];
+        byte[] elevation = new byte[0];
+        byte[] mobility = new byte[0];
+        byte[] result = new byte[0];        // 2 light won, 1 draw, 0 dark won
+
+        void add(long state, int winner) {
+            if (size == result.length) {
+                int capacity = Math.max(1024, size * 2);
+                patterns = Arrays.copyOf(patterns, capacity * nSquares);
+                reserves = Arrays.copyOf(reserves, capacity);
+                elevation = Arrays.copyOf(elevation, capacity);
+                mobility = Arrays.copyOf(mobility, capacity);
+                result = Arrays.copyOf(result, capacity);
+            }
+            int light = PylosBitboard.spheres(state, PylosPlayerColor.LIGHT);
+            int dark = PylosBitboard.spheres(state, PylosPlayerColor.DARK);
+            int occupied = light | dark;
+            for (int s = 0; s < nSquares; s++) {
+                patterns[size * nSquares + s] = (short) (PylosPatternEvaluator.getSquareTable(s) * PylosPatternEvaluator.N_PATTERNS
+                        + PylosPatternEvaluator.pattern(s, light, dark, occupied));
+            }
+            reserves[size] = (byte) (Integer.bitCount(dark) - Integer.bitCount(light));
+            elevation[size] = (byte) (PylosPatternEvaluator.elevation(light) - PylosPatternEvaluator.elevation(dark));
+            mobility[size] = (byte) (PylosBitboard.mobility(state, PylosPlayerColor.LIGHT) - PylosBitboard.mobility(state, PylosPlayerColor.DARK));
+            result[size] = (byte) (winner + 1);
+            size++;
+        }
+
+        double eval(int i, double[] params) {
+            double e = params[RESERVES] * reserves[i] + params[ELEVATION] * elevation[i] + params[MOBILITY] * mobility[i];
+            for (int s = i * nSquares, end = s + nSquares; s < end; s++) e += params[TABLES + patterns[s]];
+            return e;
+        }
+    }
+
+    /**
+     * reads a json array of PlayedGames or a PlayedGameArchive, adds its positions to training or validation and
+     * returns the number of games
+     */
+    static int read(Path input, Positions training, Positions validation, int gamesBefore) throws IOException {
+        if (input.toString().endsWith(PlayedGameArchive.EXTENSION)) {
+            PlayedGameArchive archive = PlayedGameArchive.open(input);
+            for (int game = 0; game < archive.size(); game++) {
+                Positions positions = (gamesBefore + game) % VALIDATION_EVERY == 0 ? validation : training;
+                long[] history = archive.getBoardHistory(game);
+                int winner = archive.getWinner(game);
+                for (int i = SKIP_PLIES; i < history.length; i++) positions.add(history[i], winner);
+            }
+            return archive.size();
+        }
+
+        Gson gson = new Gson();
+        int games = 0;
+        try (Reader reader = Files.newBufferedReader(input); JsonReader json = new JsonReader(reader)) {
+            json.beginArray();
+            while (json.hasNext()) {
+                PlayedGame game = gson.fromJson(json, PlayedGame.class);
+                Positions positions = (gamesBefore + games) % VALIDATION_EVERY == 0 ? validation : training;
+                List<Long> history = game.boardHistory;
+                for (int i = SKIP_PLIES; i < history.size(); i++) positions.add(history.get(i), game.winner);
+                games++;
+            }
+            json.endArray();
+        }
+        return games;
+    }
+
+    /* fitting --------------------------------------------------------------------------------------------------- */
+
+    /**
+     * returns the mean logistic loss; adds the gradient of the mean loss to 'gradient' if not null
+     */
+    static double loss(ExecutorService pool, Positions positions, double[] params, double k, double[] gradient)
+            throws InterruptedException, ExecutionException {
+        if (positions.size == 0) return Double.NaN;
+        List<Future<double[]>> futures = new ArrayList<>();
+        int chunk = (positions.size + N_THREADS - 1) / N_THREADS;
+        for (int from = 0; from < positions.size; from += chunk) {
+            int start = from, end = Math.min(positions.size, from + chunk);
+            futures.add(pool.submit(() -> lossSlice(positions, params, k, start, end, gradient != null)));
+        }
+        double sum = 0;
+        for (Future<double[]> future : futures) {
+            double[] slice = future.get();
+            sum += slice[N_PARAMS];
+            if (gradient != null) {
+                for (int p = 0; p < N_PARAMS; p++) gradient[p] += slice[p] / positions.size;
+            }
+        }
+        return sum / positions.size;
+    }
+
+    /* [0, N_PARAMS) summed gradient, [N_PARAMS] summed loss */
+    private static double[] lossSlice(Positions positions, double[] params, double k, int from, int to, boolean withGradient) {
+        double[] out = new double[N_PARAMS + 1];
+        int nSquares = positions.nSquares;
+        for (int i = from; i < to; i++) {
+            double target = positions.result[i] * 0.5;
+            double prob = 1 / (1 + Math.exp(-k * positions.eval(i, params)));
+            prob = Math.min(Math.max(prob, 1e-12), 1 - 1e-12);
+            out[N_PARAMS] -= target * Math.log(prob) + (1 - target) * Math.log(1 - prob);
+            if (!withGradient) continue;
+
+            double d = k * (prob - target); // d loss / d eval
+            out[RESERVES] += d * positions.reserves[i];
+            out[ELEVATION] += d * positions.elevation[i];
+            out[MOBILITY] += d * positions.mobility[i];
+            for (int s = i * nSquares, end = s + nSquares; s < end; s++) out[TABLES + positions.patterns[s]] += d;
+        }
+        return out;
+    }
+
+    /**
+     * returns the K that minimises the loss of the starting weights (ternary search on log K)
+     */
+    static double fitK(ExecutorService pool, Positions positions, double[] params) throws InterruptedException, ExecutionException {
+        double lo = Math.log(1e-4), hi = Math.log(1);
+        for (int i = 0; i < 40; i++) {
+            double m1 = lo + (hi - lo) / 3, m2 = hi - (hi - lo) / 3;
+            if (loss(pool, positions, params, Math.exp(m1), null) < loss(pool, positions, params, Math.exp(m2), null)) hi = m2;
+            else lo = m1;
+        }
+        return Math.exp((lo + hi) / 2);
+    }
+
+    static double[] tune(ExecutorService pool, Positions training, Positions validation, double[] initial, double k)
+            throws InterruptedException, ExecutionException {
+        double[] params = initial.clone();
+        double[] m = new double[N_PARAMS], v = new double[N_PARAMS];
+        double beta1 = 0.9, beta2 = 0.999, epsilon = 1e-8;
+        for (int epoch = 1; epoch <= EPOCHS; epoch++) {
+            double[] gradient = new double[N_PARAMS];
+            double loss = loss(pool, training, params, k, gradient);
+            for (int p = 0; p < N_PARAMS; p++) gradient[p] += L2 * (params[p] - initial[p]);
+            antisymmetrise(gradient);
+            symmetrise(gradient);
+            gradient[RESERVES] = 0;
+
+            double c1 = 1 - Math.pow(beta1, epoch), c2 = 1 - Math.pow(beta2, epoch);
+            for (int p = 0; p < N_PARAMS; p++) {
+                m[p] = beta1 * m[p] + (1 - beta1) * gradient[p];
+                v[p] = beta2 * v[p] + (1 - beta2) * gradient[p] * gradient[p];
+                params[p] -= LEARNING_RATE * (m[p] / c1) / (Math.sqrt(v[p] / c2) + epsilon);
+            }
+
+            if (epoch % 100 == 0 || epoch == EPOCHS) {
+                System.out.printf("epoch %4d: training loss %.6f, validation loss %.6f%n", epoch, loss,
+                        loss(pool, validation, params, k, null));
+            }
+        }
+        return params;
+    }
+
+    /**
+     * makes the table part of 'x' antisymmetric: x[swap(p)] == -x[p], so that evaluate(board, DARK) stays
+     * -evaluate(board, LIGHT) while only LIGHT's point of view is fitted
+     */
+    static void antisymmetrise(double[] x) {
+        for (int t = 0; t < PylosPatternEvaluator.N_TABLES; t++) {
+            int base = TABLES + t * PylosPatternEvaluator.N_PATTERNS;
+            for (int p = 0; p < SWAP.length; p++) {
+                int q = SWAP[p];
+                if (q < p) continue;
+                double a = (x[base + p] - x[base + q]) / 2;
+                x[base + p] = a;
+                x[base + q] = -a;
+            }
+        }
+    }
+
+    /**
+     * replaces every table entry of 'x' by the mean of its ORBIT class, so mirrored and rotated positions get the
+     * same evaluation; keeps x antisymmetric, since the color swap maps classes onto classes
+     */
+    static void symmetrise(double[] x) {
+        double[] sum = new double[ORBIT.length];
+        int[] count = new int[ORBIT.length];
+        for (int i = 0; i < ORBIT.length; i++) {
+            sum[ORBIT[i]] += x[TABLES + i];
+            count[ORBIT[i]]++;
+        }
+        for (int i = 0; i < ORBIT.length; i++) x[TABLES + i] = sum[ORBIT[i]] / count[ORBIT[i]];
+    }
+
+    static double[] toParams(PylosPatternEvaluator evaluator) {
+        double[] params = new double[N_PARAMS];
+        params[RESERVES] = evaluator.getReserveWeight();
+        params[ELEVATION] = evaluator.getElevationWeight();
+        params[MOBILITY] = evaluator.getMobilityWeight();
+        for (int t = 0; t < PylosPatternEvaluator.N_TABLES; t++) {
+            for (int p = 0; p < PylosPatternEvaluator.N_PATTERNS; p++) {
+                params[TABLES + t * PylosPatternEvaluator.N_PATTERNS + p] = evaluator.getWeight(t, p);
+            }
+        }
+        return params;
+    }
+
+    static PylosPatternEvaluator toEvaluator(double[] params) {
+        PylosPatternEvaluator evaluator = new PylosPatternEvaluator();
+        evaluator.setReserveWeight(params[RESERVES]);
+        evaluator.setElevationWeight(params[ELEVATION]);
+        evaluator.setMobilityWeight(params[MOBILITY]);
+        for (int t = 0; t < PylosPatternEvaluator.N_TABLES; t++) {
+            for (int p = 0; p < PylosPatternEvaluator.N_PATTERNS; p++) {
+                evaluator.setWeight(t, p, params[TABLES + t * PylosPatternEvaluator.N_PATTERNS + p]);
+            }
+        }
+        return evaluator;
+    }
+}
@@ -4,6 +4,7 @@ import be.kuleuven.pylos.battle.Battle;
 import be.kuleuven.pylos.battle.BattleMT;
 import be.kuleuven.pylos.battle.BattleResult;
 import be.kuleuven.pylos.battle.RoundRobin;
+import be.kuleuven.pylos.battle.remote.BattleCoordinator;
 import be.kuleuven.pylos.game.PylosBoard;
 import be.kuleuven.pylos.game.PylosGame;
 import be.kuleuven.pylos.game.PylosGameObserver;
@@ -28,6 +29,7 @@ public class PylosMain {
         //startSingleGame();
         startBattle();
         //startBattleMultithreaded();
+        //startBattleMultiProcess();
         //startRoundRobinTournament();
     }
 
@@ -87,6 +89,19 @@ public class PylosMain {
         BattleMT.play(p1, p2, nRuns, nThreads);
     }
 
+    public static void startBattleMultiProcess() {
+        //Every worker is a separate JVM, so the players have to come from a PylosPlayerFactory
+        //with a public no-argument constructor: the workers create them by name
+        //(BattleLoopbackCheck in pylos-core checks the coordinator on one machine, killing a worker while it plays)
+
+        int nRuns = 1000;
+        int nWorkers = 4;
+
+        PlayerFactoryCodes pFactory = new PlayerFactoryCodes();
+        BattleCoordinator coordinator = new BattleCoordinator(PlayerFactoryCodes.class, nWorkers);
+        coordinator.play(pFactory.getType("CODeS - Best Fit"), pFactory.getType("CODeS - Level 2"), nRuns, true);
+    }
+
     public static void startRoundRobinTournament() {
         //Same requirements apply as for startBattleMultithreaded()
 
@@ -100,6 +115,8 @@ public class PylosMain {
         Set<RoundRobin.Match> matches = RoundRobin.createTournament(pFactory);
 
         RoundRobin.play(matches, nRunsPerCombination, nThreads);
+        //To be able to resume a tournament that was stopped, play it with a journal (and run it again with the same file):
+        //RoundRobin.play(matches, nRunsPerCombination, nThreads, Path.of("tournament.journal"));
 
         List<BattleResult> results = matches.stream().map(c -> c.battleResult).collect(Collectors.toList());
 
@@ -2,12 +2,22 @@ package be.kuleuven.pylos.player.student;
 
 import be.kuleuven.pylos.game.*;
 import be.kuleuven.pylos.player.PylosPlayer;
+import be.kuleuven.pylos.player.PylosSearchInfo;
+import be.kuleuven.pylos.search.PylosEvalCache;
+import be.kuleuven.pylos.search.PylosPatternEvaluator;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.util.*;
 
 /**
  * StudentPlayer – square-first ordering + square-aware evaluation + tactical extension.
  * Alpha-beta + TT (exact/upper/lower) + PV move ordering. No getPlayer()/getBoard() usage.
+ * Late-move reductions and frontier futility pruning on quiet placements (with -Dpylos.student.pruning=true);
+ * lazy (reserves-first) leaf evaluation.
+ * Iterative deepening to depth 4, or to depth 6 while the time limit of the move allows; stops early (best move of the
+ * last finished depth) when the game's cancellation token asks.
  */
 public class StudentPlayer extends PylosPlayer {
 
@@ -22,32 +32,40 @@ public class StudentPlayer extends PylosPlayer {
     private static final long TT_MASK = TT_SIZE - 1;
     private static final byte TT_EXACT = 0, TT_LOWER = 1, TT_UPPER = 2;
 
+    // Mirrored positions share one entry: keys use the canonical orientation of the board state
+    // (PylosSymmetry), best moves are stored in that orientation and compared in it on a hit
+    private static final boolean FOLD_SYMMETRIC_STATES = true;
+
     private static final class TTEntry {
         long key; double value; int depth; byte flag;
-        PylosSphere s; PylosLocation to;
+        byte from, to = -1; // best move as location indices in the key's orientation; from -1 = reserve, to -1 = none
     }
     private final TTEntry[] TT = new TTEntry[TT_SIZE];
 
-    private long hashBoard(PylosBoard b, PylosPlayerColor side, PylosGameState st) {
-        long h = 1469598103934665603L; // FNV-1a offset
-        for (PylosSphere s : b.getSpheres(this)) {
-            if (s.isReserve()) continue;
-            PylosLocation L = s.getLocation();
-            long code = 0x9E + 7*L.Z + 11*L.X + 13*L.Y;
-            h ^= code; h *= 1099511628211L;
-        }
-        for (PylosSphere s : b.getSpheres(this.OTHER)) {
-            if (s.isReserve()) continue;
-            PylosLocation L = s.getLocation();
-            long code = 0xA5 + 17*L.Z + 19*L.X + 23*L.Y;
-            h ^= code; h *= 1099511628211L;
-        }
-        h ^= (long)side.ordinal() * 0x9E3779B97F4A7C15L;
-        h ^= (long)st.ordinal()   * 0xBF58476D1CE4E5B9L;
-        return h;
+    /** transform to the orientation the TT keys and moves of this board are stored in */
+    private static int ttOrientation(PylosBoard b) {
+        return FOLD_SYMMETRIC_STATES ? PylosSymmetry.canonicalTransform(b.toLong()) : 0;
+    }
+
+    private long hashBoard(PylosBoard b, int orientation, PylosPlayerColor side, PylosGameState st) {
+        long h = PylosSymmetry.transform(b.toLong(), orientation); // 60 bits, side and state go on top
+        h |= (long)side.ordinal() << 60 | (long)st.ordinal() << 61;
+        // values include CONTEMPT for this player's color, which changes when a pooled player swaps colors
+        h |= (long)PLAYER_COLOR.ordinal() << 63;
+        // splitmix64 finalizer, spreads the board over the low (index) bits
+        h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+        h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+        return h ^ (h >>> 31);
+    }
+    private static boolean isTTMove(TTEntry e, Move m, int orientation) {
+        if (e.to != PylosSymmetry.transformIndex(PylosBitboard.indexOf(m.to), orientation)) return false;
+        if (m.sphere.isReserve()) return e.from == -1;
+        return e.from == PylosSymmetry.transformIndex(PylosBitboard.indexOf(m.sphere.getLocation()), orientation);
     }
     private TTEntry ttProbe(long key, int depth, double alpha, double beta) {
         TTEntry e = TT[(int)(key & TT_MASK)];
+        ttProbes++;
+        if (e != null && e.key == key) ttHits++;
         if (e != null && e.key == key && e.depth >= depth) {
             if (e.flag == TT_EXACT) return e;
             if (e.flag == TT_LOWER && e.value >= beta) return e;
@@ -55,23 +73,104 @@ public class StudentPlayer extends PylosPlayer {
         }
         return null;
     }
-    private void ttStore(long key, int depth, double val, double alphaOrig, double betaOrig, byte flag, Move best) {
+    private void ttStore(long key, int depth, double val, double alphaOrig, double betaOrig, byte flag, Move best, int orientation) {
         int idx = (int)(key & TT_MASK);
         TTEntry e = TT[idx];
+        ttStores++;
+        if (e != null && e.key != key) ttCollisions++;
         if (e == null || e.depth <= depth) TT[idx] = e = new TTEntry();
         e.key = key; e.depth = depth; e.value = val; e.flag = flag;
-        e.s = (best == null) ? null : best.sphere;
-        e.to = (best == null) ? null : best.to;
+        e.from = (best == null || best.sphere.isReserve()) ? -1
+                : (byte) PylosSymmetry.transformIndex(PylosBitboard.indexOf(best.sphere.getLocation()), orientation);
+        e.to = (best == null) ? -1 : (byte) PylosSymmetry.transformIndex(PylosBitboard.indexOf(best.to), orientation);
     }
 
+    /* ================= Evaluation cache ================= */
+    // shared by all StudentPlayers in the JVM (BattleMT runs them on several threads), ~4 MB
+    private static final PylosEvalCache EVAL_CACHE = PylosEvalCache.concurrent(18);
+    private static final long EVAL_KEY_DARK = 1L << 60; // eval() is from this player's point of view
+
+    // table-driven evaluation, loaded from the file in -Dpylos.student.weights if set
+    private static final PylosPatternEvaluator EVALUATOR = loadEvaluator();
+    // value of one reserve sphere in that evaluation, the unit of the futility margin below
+    private static final double RESERVE_WEIGHT = EVALUATOR.getReserveWeight();
+
     /* ================= Search settings ================= */
-    private static final int MAX_DEPTH = 4 ;
+    // depth without a time limit; with one the search goes on to MAX_DEPTH while the deadline allows
+    private static final int DEPTH = 4;
+    private static final int MAX_DEPTH = 6;
     private static final double INF = 1e18;
 
+    // Iterative deepening in steps of 2, so every iteration ends on the same side to move
+    private static final int ID_START_DEPTH = 2;
+    private static final int ID_STEP = 2;
+    // an iteration takes about this many times the one before it, the next one only starts if that fits the deadline
+    private static final int ID_GROWTH = 3;
+
+    private PylosCancellationToken cancellation = PylosCancellationToken.NONE;
+    private long nodes;
+    private boolean stopped; // set once the token asks to stop, unwinds the running search
+
+    // search statistics of the running iteration, sent to the observer as PylosSearchInfo
+    private long ttProbes, ttHits, ttStores, ttCollisions, cutoffs, firstMoveCutoffs;
+
+    // LMR and futility pruning change the result of a search, and don't buy 2 more plies in the same time:
+    // off unless -Dpylos.student.pruning=true
+    private static final boolean PRUNING = Boolean.getBoolean("pylos.student.pruning");
+
+    // Late-move reductions: quiet moves after the first LMR_FULL_MOVES get a reduced null-window probe;
+    // the reduction is even so the probe ends on the same side to move as the full search
+    private static final int LMR_MIN_DEPTH = 3;
+    private static final int LMR_FULL_MOVES = 6;
+    private static final int LMR_REDUCTION = 2;
+    private static final double LMR_WINDOW = 1e-6;
+
+    // Futility pruning at frontier nodes: structure and a quiet placement can't make up ~3 reserves
+    private static final double FUTILITY_MARGIN = 3 * Math.abs(RESERVE_WEIGHT);
+
+    // Lazy evaluation at leaves: eval() is never more than LAZY_MARGIN from its reserve term, so when the reserve
+    // term alone is that far outside the window the full evaluation can't change the result
+    private static final double LAZY_MARGIN = EVALUATOR.getStructuralBound();
+
+    // Symmetric boards: only one of each group of mirrored moves is searched (root always, interior while
+    // the board is nearly empty, later on symmetric positions are too rare to pay for the check)
+    private static final int SYMMETRY_MAX_SPHERES = 8;
+
     /* ================= Entrypoints ================= */
+    // the TT is kept: its keys are whole board states plus this player's color, so entries of earlier games are
+    // still right
+    @Override
+    public void resetForReuse() {
+        cancellation = PylosCancellationToken.NONE;
+        stopped = false;
+        nodes = 0;
+        ttProbes = ttHits = ttStores = ttCollisions = cutoffs = firstMoveCutoffs = 0;
+    }
+
     @Override
     public void doMove(PylosGameIF game, PylosBoard board) {
-        Move best = searchRoot(board, MAX_DEPTH);
+        cancellation = game.getCancellationToken();
+        nodes = 0;
+        stopped = false;
+
+        boolean timed = cancellation.getRemainingNanos() != Long.MAX_VALUE;
+        int maxDepth = timed ? MAX_DEPTH : DEPTH;
+        Move best = null;
+        boolean last = false;
+        for (int depth = ID_START_DEPTH; !last; depth += ID_STEP) {
+            long start = System.nanoTime(), startNodes = nodes;
+            ttProbes = ttHits = ttStores = ttCollisions = cutoffs = firstMoveCutoffs = 0;
+
+            Move m = searchRoot(board, depth, best);
+            // an interrupted iteration only counts if there is nothing better
+            if (m != null && (!stopped || best == null)) best = m;
+
+            long nanos = System.nanoTime() - start;
+            last = stopped || depth + ID_STEP > maxDepth
+                    || timed && best != null && ID_GROWTH * nanos > cancellation.getRemainingNanos();
+            getObserver().searchInfo(this, new PylosSearchInfo(depth, nodes - startNodes, nanos,
+                    ttProbes, ttHits, ttStores, ttCollisions, cutoffs, firstMoveCutoffs, last));
+        }
         if (best != null) { game.moveSphere(best.sphere, best.to); return; }
         // rare fallback
         PylosSphere r = board.getReserve(this);
@@ -109,6 +208,7 @@ public class StudentPlayer extends PylosPlayer {
     /* ================= Core search ================= */
     private static final class Move {
         final PylosSphere sphere; final PylosLocation to;
+        boolean quiet; // reserve placement that doesn't complete a square
         Move(PylosSphere s, PylosLocation t) { sphere = s; to = t; }
     }
     private static final class ScoredMove {
@@ -116,22 +216,33 @@ public class StudentPlayer extends PylosPlayer {
         ScoredMove(Move m, double s) { this.m = m; this.score = s; }
     }
 
-    private Move searchRoot(PylosBoard board, int depth) {
+    private Move searchRoot(PylosBoard board, int depth, Move previousBest) {
         PylosGameSimulator sim = new PylosGameSimulator(PylosGameState.MOVE, PLAYER_COLOR, board);
 
         double alpha = -INF, beta = INF, bestVal = -INF;
         Move best = null;
 
         // Try PV move from TT first
-        long key = hashBoard(board, sim.getColor(), sim.getState());
+        int orientation = ttOrientation(board);
+        long key = hashBoard(board, orientation, sim.getColor(), sim.getState());
         TTEntry pv = ttProbe(key, depth, alpha, beta);
 
-        List<Move> moves = generateOrderedMoves(sim, board, this);
-        if (pv != null && pv.s != null && pv.to != null) {
+        List<Move> moves = generateOrderedMoves(sim, board, this, PylosSymmetry.stabiliser(board.toLong()));
+        if (pv != null && pv.to >= 0) {
             // move PV to front if it’s legal in current node
             for (int i = 0; i < moves.size(); i++) {
                 Move m = moves.get(i);
-                if (m.sphere == pv.s && m.to == pv.to) {
+                if (isTTMove(pv, m, orientation)) {
+                    if (i != 0) { moves.remove(i); moves.add(0, m); }
+                    break;
+                }
+            }
+        }
+        if (previousBest != null) {
+            // best move of the previous iteration goes first
+            for (int i = 0; i < moves.size(); i++) {
+                Move m = moves.get(i);
+                if (m.sphere == previousBest.sphere && m.to == previousBest.to) {
                     if (i != 0) { moves.remove(i); moves.add(0, m); }
                     break;
                 }
@@ -146,11 +257,12 @@ public class StudentPlayer extends PylosPlayer {
             int nextDepth = depth - 1;
             if (sim.getState() == PylosGameState.REMOVE_FIRST) nextDepth = Math.max(nextDepth + 1, 0);
 
-            double val = -negamax(sim, nextDepth, -beta, -alpha, board);
+            double val = child(sim, nextDepth, alpha, beta, board, pc);
 
             if (from == null) sim.undoAddSphere(m.sphere, ps, pc);
             else              sim.undoMoveSphere(m.sphere, from, ps, pc);
 
+            if (stopped) { if (best == null) best = m; break; }
             if (val > bestVal) { bestVal = val; best = m; alpha = Math.max(alpha, val); }
             if (alpha >= beta) break;
         }
@@ -158,12 +270,15 @@ public class StudentPlayer extends PylosPlayer {
     }
 
     private double negamax(PylosGameSimulator sim, int depth, double alpha, double beta, PylosBoard board) {
+        if ((++nodes & PylosCancellationToken.POLL_MASK) == 0 && cancellation.isStopRequested()) stopped = true;
+        if (stopped) return 0;
         if (depth <= 0 || sim.getState() == PylosGameState.COMPLETED) {
-            return signedEval(board, sim.getColor());
+            return lazyEval(board, sim.getColor(), alpha, beta);
         }
 
         double alphaOrig = alpha;
-        long key = hashBoard(board, sim.getColor(), sim.getState());
+        int orientation = ttOrientation(board);
+        long key = hashBoard(board, orientation, sim.getColor(), sim.getState());
         TTEntry hit = ttProbe(key, depth, alpha, beta);
         if (hit != null) return hit.value;
 
@@ -176,14 +291,16 @@ public class StudentPlayer extends PylosPlayer {
         Move bestMoveForTT = null;
 
         if (state == PylosGameState.MOVE) {
-            List<Move> moves = generateOrderedMoves(sim, board, who);
+            int symmetry = board.getNumberOfSpheresOnBoard() <= SYMMETRY_MAX_SPHERES
+                    ? PylosSymmetry.stabiliser(board.toLong()) : PylosSymmetry.IDENTITY;
+            List<Move> moves = generateOrderedMoves(sim, board, who, symmetry);
 
             // PV move first if TT has one
             TTEntry pv = TT[(int)(key & TT_MASK)];
-            if (pv != null && pv.key == key && pv.s != null && pv.to != null) {
+            if (pv != null && pv.key == key && pv.to >= 0) {
                 for (int i = 0; i < moves.size(); i++) {
                     Move m = moves.get(i);
-                    if (m.sphere == pv.s && m.to == pv.to) {
+                    if (isTTMove(pv, m, orientation)) {
                         if (i != 0) { moves.remove(i); moves.add(0, m); }
                         break;
                     }
@@ -192,7 +309,14 @@ public class StudentPlayer extends PylosPlayer {
 
             if (moves.isEmpty()) return signedEval(board, sim.getColor()); // <- FIXED (was evaluate)
 
+            // frontier node: quiet placements can't lift a hopeless static score above alpha
+            boolean futile = PRUNING && depth == 1 && reserveBound(board, side) + FUTILITY_MARGIN <= alpha;
+
+            int moveIndex = 0;
             for (Move m : moves) {
+                moveIndex++;
+                if (futile && m.quiet && best > -INF) continue;
+
                 PylosGameState ps = sim.getState(); PylosPlayerColor pc = sim.getColor();
                 PylosLocation from = m.sphere.isReserve() ? null : m.sphere.getLocation();
 
@@ -201,17 +325,44 @@ public class StudentPlayer extends PylosPlayer {
                 int nextDepth = depth - 1;
                 if (sim.getState() == PylosGameState.REMOVE_FIRST) nextDepth = Math.max(nextDepth + 1, 0);
 
-                double val = -negamax(sim, nextDepth, -beta, -alpha, board);
+                double val;
+                if (PRUNING && m.quiet && depth >= LMR_MIN_DEPTH && moveIndex > LMR_FULL_MOVES) {
+                    // reduced null-window probe, re-search at full depth only if it beats alpha
+                    val = child(sim, nextDepth - LMR_REDUCTION, alpha, alpha + LMR_WINDOW, board, pc);
+                    if (val > alpha) val = child(sim, nextDepth, alpha, beta, board, pc);
+                } else {
+                    val = child(sim, nextDepth, alpha, beta, board, pc);
+                }
 
                 if (from == null) sim.undoAddSphere(m.sphere, ps, pc);
                 else              sim.undoMoveSphere(m.sphere, from, ps, pc);
 
                 if (val > best) { best = val; bestMoveForTT = m; }
                 if (val > alpha) { alpha = val; flag = TT_EXACT; }
-                if (alpha >= beta) { flag = TT_LOWER; break; }
+                if (alpha >= beta) { flag = TT_LOWER; countCutoff(moveIndex); break; }
+            }
+        } else if (state == PylosGameState.REMOVE_FIRST) {
+            // both removals (or removal + pass) as one unordered set: A,B and B,A are searched once
+            List<PylosRemoval> removals = PylosRemoval.generate(board, side);
+            // two spheres before one, then higher-Z first (keeps base intact)
+            removals.sort(Comparator.comparingInt(StudentPlayer::removalOrder).reversed());
+
+            int removalIndex = 0;
+            for (PylosRemoval r : removals) {
+                removalIndex++;
+                PylosPlayerColor pc = sim.getColor();
+
+                sim.removeSpheres(r);
+                // two plies, like a separate REMOVE_FIRST and REMOVE_SECOND step
+                double val = child(sim, depth - 2, alpha, beta, board, pc);
+                sim.undoRemoveSpheres(r, state, pc);
+
+                if (val > best) { best = val; bestMoveForTT = null; }
+                if (val > alpha) { alpha = val; flag = TT_EXACT; }
+                if (alpha >= beta) { flag = TT_LOWER; countCutoff(removalIndex); break; }
             }
         } else {
-            // REMOVE_FIRST / REMOVE_SECOND
+            // REMOVE_SECOND (only reached when a search starts in that state)
             List<PylosSphere> choices = new ArrayList<>();
             for (PylosSphere s : board.getSpheres(who)) if (s.canRemove()) choices.add(s);
             // remove higher-Z first (keeps base intact)
@@ -222,7 +373,7 @@ public class StudentPlayer extends PylosPlayer {
                 PylosLocation from = s.getLocation();
 
                 sim.removeSphere(s);
-                double val = -negamax(sim, depth - 1, -beta, -alpha, board);
+                double val = child(sim, depth - 1, alpha, beta, board, pc);
 
                 if (ps == PylosGameState.REMOVE_FIRST) sim.undoRemoveFirstSphere(s, from, ps, pc);
                 else                                   sim.undoRemoveSecondSphere(s, from, ps, pc);
@@ -236,35 +387,63 @@ public class StudentPlayer extends PylosPlayer {
                 // also consider PASS
                 PylosGameState ps = sim.getState(); PylosPlayerColor pc = sim.getColor();
                 sim.pass();
-                double val = -negamax(sim, depth - 1, -beta, -alpha, board);
+                double val = child(sim, depth - 1, alpha, beta, board, pc);
                 sim.undoPass(ps, pc);
                 if (val > best) { best = val; }
                 if (val > alpha) { alpha = val; flag = TT_EXACT; }
             }
         }
 
+        if (stopped) return 0; // interrupted: the value is meaningless, keep it out of the TT
+
         // finalize TT flag (consistent with alphaOrig/beta)
         byte storeFlag = flag;
         if (best <= alphaOrig) storeFlag = TT_UPPER;     // fail-low
         else if (best >= beta) storeFlag = TT_LOWER;     // fail-high
         else storeFlag = TT_EXACT;
 
-        ttStore(key, depth, best, alphaOrig, beta, storeFlag, bestMoveForTT);
+        ttStore(key, depth, best, alphaOrig, beta, storeFlag, bestMoveForTT, orientation);
         return best;
     }
 
+    private void countCutoff(int moveIndex) {
+        cutoffs++;
+        if (moveIndex == 1) firstMoveCutoffs++;
+    }
+
+    // completing a square keeps the turn (REMOVE_FIRST): same side, so no negation
+    private double child(PylosGameSimulator sim, int depth, double alpha, double beta, PylosBoard board, PylosPlayerColor mover) {
+        if (sim.getColor() == mover) return negamax(sim, depth, alpha, beta, board);
+        return -negamax(sim, depth, -beta, -alpha, board);
+    }
+
     /* ================= Move ordering ================= */
-    private List<Move> generateOrderedMoves(PylosGameSimulator sim, PylosBoard board, PylosPlayer who) {
+    private List<Move> generateOrderedMoves(PylosGameSimulator sim, PylosBoard board, PylosPlayer who, int symmetry) {
         List<Move> raw = new ArrayList<>();
 
+        PylosLocation[] locations = board.getLocations();
+        long state = board.toLong();
+        int occupied = PylosBitboard.occupied(state);
+        int usable = PylosBitboard.usable(occupied);
+
         // reserve placements (ours only)
         PylosSphere r = board.getReserve(who);
-        if (r != null) for (PylosLocation l : board.getLocations()) if (r.canMoveTo(l)) raw.add(new Move(r, l));
+        if (r != null) {
+            for (int u = usable; u != 0; u &= u - 1) {
+                int to = Integer.numberOfTrailingZeros(u);
+                if (PylosSymmetry.isCanonical(symmetry, -1, to)) raw.add(new Move(r, locations[to]));
+            }
+        }
 
-        // lifts/moves (ours only)
-        for (PylosSphere s : board.getSpheres(who)) {
-            if (s.isReserve()) continue;
-            for (PylosLocation l : board.getLocations()) if (s.canMoveTo(l)) raw.add(new Move(s, l));
+        // lifts/moves (ours only): free spheres to usable higher locations they don't support
+        int free = PylosBitboard.spheres(state, who.PLAYER_COLOR) & ~PylosBitboard.covered(occupied);
+        for (int f = free; f != 0; f &= f - 1) {
+            int from = Integer.numberOfTrailingZeros(f);
+            PylosSphere s = locations[from].getSphere();
+            for (int t = PylosBitboard.liftTargets(from, usable); t != 0; t &= t - 1) {
+                int to = Integer.numberOfTrailingZeros(t);
+                if (PylosSymmetry.isCanonical(symmetry, from, to)) raw.add(new Move(s, locations[to]));
+            }
         }
 
         // probe ordering: squares >> lifts >> center
@@ -287,6 +466,7 @@ public class StudentPlayer extends PylosPlayer {
 
             sim.moveSphere(m.sphere, m.to);
             if (sim.getState() == PylosGameState.REMOVE_FIRST) score += 200.20;
+            else m.quiet = from == null;
             if (from == null) sim.undoAddSphere(m.sphere, ps, pc);
             else              sim.undoMoveSphere(m.sphere, from, ps, pc);
 
@@ -299,6 +479,11 @@ public class StudentPlayer extends PylosPlayer {
         return ordered;
     }
 
+    private static int removalOrder(PylosRemoval r) {
+        int z = r.first.getLocation().Z + (r.second == null ? 0 : r.second.getLocation().Z);
+        return r.size() * 16 + z;
+    }
+
     private double centerBonus(PylosLocation l) {
         int n = 4 - l.Z;
         double cx = (n - 1) / 2.0, cy = (n - 1) / 2.0;
@@ -314,73 +499,51 @@ public class StudentPlayer extends PylosPlayer {
         return (sideToMove == this.PLAYER_COLOR) ? (e + CONTEMPT) : (-e - CONTEMPT);
     }
 
-    private double eval(PylosBoard board) {
-        int myRes=0, opRes=0, myZ=0, opZ=0, myMob=0, opMob=0;
-
-        boolean[][][] occMy = new boolean[4][][], occOp = new boolean[4][][], occAny = new boolean[4][][];
-        for (int z=0; z<4; z++) { int n=4-z; occMy[z]=new boolean[n][n]; occOp[z]=new boolean[n][n]; occAny[z]=new boolean[n][n]; }
-
-        for (PylosSphere s : board.getSpheres(this)) {
-            if (s.isReserve()) { myRes++; continue; }
-            PylosLocation L = s.getLocation(); myZ += L.Z;
-            occMy[L.Z][L.X][L.Y] = true; occAny[L.Z][L.X][L.Y] = true;
-            for (PylosLocation t : board.getLocations()) if (s.canMoveTo(t)) myMob++;
-        }
-        for (PylosSphere s : board.getSpheres(this.OTHER)) {
-            if (s.isReserve()) { opRes++; continue; }
-            PylosLocation L = s.getLocation(); opZ += L.Z;
-            occOp[L.Z][L.X][L.Y] = true; occAny[L.Z][L.X][L.Y] = true;
-            for (PylosLocation t : board.getLocations()) if (s.canMoveTo(t)) opMob++;
-        }
-
-        int mySquares = countSquares(occMy);
-        int opSquares = countSquares(occOp);
-        int myThreats = countThreats3of4(occMy, occAny);
-        int opThreats = countThreats3of4(occOp, occAny);
+    /**
+     * two-stage leaf evaluation: the reserve term first, the full (cached) evaluation only if the reserve term
+     * plus or minus LAZY_MARGIN is still inside the window (fail-soft bound otherwise)
+     */
+    private double lazyEval(PylosBoard board, PylosPlayerColor sideToMove, double alpha, double beta) {
+        double bound = reserveBound(board, sideToMove);
+        if (bound - LAZY_MARGIN >= beta) return bound - LAZY_MARGIN;
+        if (bound + LAZY_MARGIN <= alpha) return bound + LAZY_MARGIN;
+        return signedEval(board, sideToMove);
+    }
 
-        return  16.0 * (myRes     - opRes)   // reserve advantage (lower -> place earlier)
-                + 14.0 * (mySquares - opSquares)
-                +   7.0 * (myThreats - opThreats)
-                +   1.2 * (myZ       - opZ)
-                +   0.15* (myMob     - opMob);
+    /** reserve term of eval() only, from the point of view of sideToMove */
+    private double reserveBound(PylosBoard board, PylosPlayerColor sideToMove) {
+        double e = RESERVE_WEIGHT * (board.getReservesSize(this) - board.getReservesSize(this.OTHER));
+        return (sideToMove == this.PLAYER_COLOR) ? (e + CONTEMPT) : (-e - CONTEMPT);
     }
 
-    private int countSquares(boolean[][][] occ) {
-        int tot = 0;
-        for (int z=0; z<4; z++) {
-            int n=4-z; if (n<2) continue;
-            for (int x=0; x<n-1; x++) for (int y=0; y<n-1; y++)
-                if (occ[z][x][y] && occ[z][x+1][y] && occ[z][x][y+1] && occ[z][x+1][y+1]) tot++;
+    private double eval(PylosBoard board) {
+        long key = board.toLong() | (PLAYER_COLOR == PylosPlayerColor.DARK ? EVAL_KEY_DARK : 0);
+        double e = EVAL_CACHE.get(key);
+        if (Double.isNaN(e)) {
+            e = EVALUATOR.evaluate(board, PLAYER_COLOR);
+            EVAL_CACHE.put(key, e);
         }
-        return tot;
+        return e;
     }
-    private int countThreats3of4(boolean[][][] mine, boolean[][][] any) {
-        int t=0;
-        for (int z=0; z<4; z++) {
-            int n=4-z; if (n<2) continue;
-            for (int x=0; x<n-1; x++) for (int y=0; y<n-1; y++) {
-                int cnt=0;
-                if (mine[z][x][y]) cnt++; if (mine[z][x+1][y]) cnt++;
-                if (mine[z][x][y+1]) cnt++; if (mine[z][x+1][y+1]) cnt++;
-                if (cnt==3) {
-                    if (!mine[z][x][y]     && !any[z][x][y])     t++;
-                    if (!mine[z][x+1][y]   && !any[z][x+1][y])   t++;
-                    if (!mine[z][x][y+1]   && !any[z][x][y+1])   t++;
-                    if (!mine[z][x+1][y+1] && !any[z][x+1][y+1]) t++;
-                }
-            }
+
+    private static PylosPatternEvaluator loadEvaluator() {
+        String file = System.getProperty("pylos.student.weights");
+        if (file == null) return PylosPatternEvaluator.defaults();
+        try {
+            return PylosPatternEvaluator.load(Path.of(file));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-        return t;
     }
 
     /* ================= Utilities ================= */
     private double mobility(PylosBoard board, PylosPlayer who, PylosSphere pretendRemove) {
-        int skip = pretendRemove == null ? 0 : System.identityHashCode(pretendRemove);
-        double m = 0;
-        for (PylosSphere s : board.getSpheres(who)) {
-            if (pretendRemove != null && System.identityHashCode(s) == skip) continue;
-            if (s.isReserve()) continue;
-            for (PylosLocation l : board.getLocations()) if (s.canMoveTo(l)) m += 1;
+        long state = board.toLong();
+        double m = PylosBitboard.mobility(state, who.PLAYER_COLOR);
+        if (pretendRemove != null && pretendRemove.canRemove()) {
+            // leave out the lifts of the sphere we pretend to remove
+            int usable = PylosBitboard.usable(PylosBitboard.occupied(state));
+            m -= Integer.bitCount(PylosBitboard.liftTargets(PylosBitboard.indexOf(pretendRemove.getLocation()), usable));
         }
         return m;
     }